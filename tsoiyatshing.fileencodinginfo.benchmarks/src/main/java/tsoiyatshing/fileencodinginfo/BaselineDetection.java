@@ -0,0 +1,65 @@
+package tsoiyatshing.fileencodinginfo;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.ibm.icu.text.CharsetDetector;
+import com.ibm.icu.text.CharsetMatch;
+
+/**
+ * The detection with ICU only and the validation of a whole stream, as done by the plugin before EncodingUtil.detect() read the data once for both.
+ * The plugin does not use them any more, they are kept here as the baselines of the benchmarks.
+ * In the same package as the plugin, so that the package-private DecodingValidator can be used.
+ * @author Tsoi Yat Shing
+ *
+ */
+public final class BaselineDetection {
+	private BaselineDetection() {
+	}
+
+	/**
+	 * Detect the possible charsets of an input stream using ICU, which reads the beginning of the stream only.
+	 * @param in The input stream, which is closed before return.
+	 * @return the detected charsets or null.
+	 */
+	public static CharsetMatch[] detectCharsets(InputStream in) throws IOException {
+		// CharsetDetector.setText() requires that markSupported() == true.
+		InputStream bin = new BufferedInputStream(in);
+		try {
+			CharsetDetector detector = new CharsetDetector();
+			detector.setText(bin);
+			return detector.detectAll();
+		}
+		finally {
+			bin.close();
+		}
+	}
+
+	/**
+	 * Check whether an input stream can be decoded by an encoding, chunk by chunk until the first malformed input.
+	 * @param in The input stream, which is closed before return.
+	 * @return true/false, false if the encoding is not supported.
+	 */
+	public static boolean isDecodable(InputStream in, String encoding) throws IOException {
+		try {
+			DecodingValidator validator;
+			try {
+				validator = new DecodingValidator(encoding);
+			} catch (IllegalArgumentException e) {
+				// The encoding is not supported.
+				return false;
+			}
+			
+			byte[] buffer = new byte[DecodingValidator.BUFFER_SIZE];
+			int len;
+			while ((len = in.read(buffer)) > 0) {
+				if (!validator.update(buffer, 0, len)) return false;
+			}
+			return validator.finish();
+		}
+		finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package tsoiyatshing.fileencodinginfo.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tsoiyatshing.fileencodinginfo.DetectedEncodings;
+import tsoiyatshing.fileencodinginfo.DetectionResult;
+import tsoiyatshing.fileencodinginfo.EncodingUtil;
+
+/**
+ * Benchmark comparing the charset names, which is done for every detected encoding when the label is refreshed.
+ * Run with "-prof gc" to report the allocation rate.
+ * @author Tsoi Yat Shing
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CharsetBenchmark {
+	// The charset name compared with the detected encodings, in different forms of the same charsets.
+	@Param({"UTF-8", "utf8", "Big5", "x-unknown"})
+	public String charset;
+
+	// The detected encodings, like those reported by ICU.
+	private String[] names = {"UTF-8", "ISO-8859-1", "windows-1252", "Big5", "GB18030", "Shift_JIS", "EUC-KR", "UTF-16LE"};
+	private int[] confidences = {80, 40, 35, 30, 20, 10, 10, 5};
+
+	private DetectedEncodings detected_encodings;
+
+	private DetectionResult result;
+
+	@Setup
+	public void setUp() {
+		detected_encodings = new DetectedEncodings(names, confidences);
+		result = new DetectionResult(detected_encodings, charset, true, false);
+	}
+
+	@Benchmark
+	public boolean areCharsetsEqual() {
+		return EncodingUtil.areCharsetsEqual(charset, "UTF-8");
+	}
+
+	@Benchmark
+	public int getConfidence() {
+		return detected_encodings.getConfidence(charset);
+	}
+
+	/**
+	 * The rule of showing the label in red color, which compares the charsets several times.
+	 */
+	@Benchmark
+	public boolean isEncodingSuspicious() {
+		return result.isEncodingSuspicious();
+	}
+}
@@ -0,0 +1,154 @@
+package tsoiyatshing.fileencodinginfo.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.util.Random;
+
+/**
+ * Generate the synthetic files benchmarked, which are kept in a directory so that they can be reused by other runs.
+ * The files are named by their kinds and sizes, e.g. Big5-1MB.txt, and are generated only if they do not exist.
+ * @author Tsoi Yat Shing
+ *
+ */
+public class Corpus {
+	// The directory of the files, can be changed by the system property corpus.dir.
+	private static final File DIRECTORY = new File(System.getProperty("corpus.dir", new File(System.getProperty("java.io.tmpdir"), "fileencodinginfo-corpus").getPath()));
+
+	// The kinds of the files, i.e. the encodings, or mixed/corrupt UTF-8.
+	public static final String MIXED = "mixed";
+	public static final String CORRUPT = "corrupt";
+
+	// The size of the text repeated to fill a file.
+	private static final int BLOCK_SIZE = 64 * 1024;
+
+	/**
+	 * Get the encoding of a kind of file, which is the encoding setting checked by the benchmarks.
+	 */
+	public static String getEncoding(String kind) {
+		return MIXED.equals(kind) || CORRUPT.equals(kind) ? "UTF-8" : kind;
+	}
+
+	/**
+	 * Get a file, generate it if it does not exist.
+	 * @param kind The encoding of the file, or MIXED (UTF-8 with some windows-1252 lines), or CORRUPT (UTF-8 with an invalid byte in the middle).
+	 * @param size The size of the file, e.g. 1KB, 64MB, 1GB.
+	 */
+	public static synchronized File getFile(String kind, String size) throws IOException {
+		long length = parseSize(size);
+		File file = new File(DIRECTORY, kind + "-" + size + ".txt");
+		if (file.isFile() && file.length() == length) return file;
+		
+		DIRECTORY.mkdirs();
+		byte[] block = getBlock(kind);
+		File temp_file = new File(DIRECTORY, file.getName() + ".tmp");
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(temp_file), BLOCK_SIZE);
+		try {
+			long written = 0;
+			while (written + block.length <= length) {
+				out.write(block);
+				written += block.length;
+			}
+			// Pad with spaces, so that no character is truncated.
+			while (written < length) {
+				out.write(' ');
+				written++;
+			}
+		}
+		finally {
+			out.close();
+		}
+		
+		if (CORRUPT.equals(kind) && length > 0) {
+			// An invalid UTF-8 byte in the middle, so that half of the file is checked before it is found.
+			RandomAccessFile raf = new RandomAccessFile(temp_file, "rw");
+			try {
+				raf.seek(length / 2);
+				raf.write(0xFF);
+			}
+			finally {
+				raf.close();
+			}
+		}
+		
+		file.delete();
+		if (!temp_file.renameTo(file)) throw new IOException("Cannot rename " + temp_file + " to " + file);
+		return file;
+	}
+
+	/**
+	 * Get a block of text, which is repeated to fill a file.
+	 * The block ends with a complete character, so that it can be repeated.
+	 */
+	private static byte[] getBlock(String kind) throws UnsupportedEncodingException {
+		StringBuilder text = new StringBuilder();
+		Random random = new Random(kind.hashCode());
+		String encoding = getEncoding(kind);
+		String sample = getSampleText(encoding);
+		byte[] windows_1252_line = (getSampleText("windows-1252") + "\n").getBytes("windows-1252");
+		
+		ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_SIZE + 1024);
+		while (block.size() < BLOCK_SIZE) {
+			// Shuffle the words, so that the block is not too repetitive for the detectors.
+			text.setLength(0);
+			for (int i = 0; i < 8; i++) {
+				int start = random.nextInt(sample.length());
+				int end = Math.min(sample.length(), start + 8 + random.nextInt(24));
+				text.append(sample, start, end);
+				text.append(' ');
+			}
+			text.append('\n');
+			
+			if (MIXED.equals(kind) && random.nextInt(8) == 0) {
+				// Some lines are in windows-1252, e.g. pasted from another file.
+				block.write(windows_1252_line, 0, windows_1252_line.length);
+			}
+			else {
+				byte[] line = text.toString().getBytes(encoding);
+				block.write(line, 0, line.length);
+			}
+		}
+		return block.toByteArray();
+	}
+
+	/**
+	 * Get some text which can be encoded by an encoding.
+	 */
+	private static String getSampleText(String encoding) {
+		if ("Big5".equalsIgnoreCase(encoding)) {
+			return "這個插件顯示目前編輯文字檔案的編碼，並使用 ICU 偵測可能的編碼。 encoding detection";
+		}
+		if ("Shift_JIS".equalsIgnoreCase(encoding)) {
+			return "このプラグインは編集中のテキストファイルの文字コードを表示します。 encoding detection";
+		}
+		if ("windows-1251".equalsIgnoreCase(encoding)) {
+			return "Этот плагин показывает кодировку текущего файла.";
+		}
+		if ("windows-1250".equalsIgnoreCase(encoding)) {
+			return "Tento zásuvný modul zobrazuje kódování aktuálně upravovaného souboru žluťoučký kůň.";
+		}
+		if (encoding.toLowerCase().startsWith("windows-125") || "ISO-8859-1".equalsIgnoreCase(encoding)) {
+			return "Ce module affiche l'encodage du fichier texte édité, à côté de la barre d'état. Grüße, señor.";
+		}
+		// UTF-8 and the other Unicode encodings, mix several scripts.
+		return "This plugin shows the encoding of the current file. 顯示編碼 文字コード кодировка café";
+	}
+
+	/**
+	 * Parse a size like 1KB, 64MB, 1GB.
+	 */
+	public static long parseSize(String size) {
+		String upper = size.trim().toUpperCase();
+		long unit = 1;
+		if (upper.endsWith("KB")) unit = 1024L;
+		else if (upper.endsWith("MB")) unit = 1024L * 1024;
+		else if (upper.endsWith("GB")) unit = 1024L * 1024 * 1024;
+		String number = unit == 1 ? upper : upper.substring(0, upper.length() - 2);
+		return Long.parseLong(number.trim()) * unit;
+	}
+}
@@ -0,0 +1,152 @@
+package tsoiyatshing.fileencodinginfo.benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tsoiyatshing.fileencodinginfo.BaselineDetection;
+import tsoiyatshing.fileencodinginfo.DetectionResult;
+import tsoiyatshing.fileencodinginfo.EncodingUtil;
+
+import com.ibm.icu.text.CharsetMatch;
+
+/**
+ * Benchmark detecting and validating the files of the synthetic corpus.
+ * The throughput in MB per second (1MB = 1048576 bytes) is reported by the "mb" counter, the latency percentiles by DetectionLatencyBenchmark.
+ * Only the bytes actually read or checked are counted, e.g. a sample of a large file, or the beginning of a corrupt file.
+ * Run with "-prof gc" to report the allocation rate.
+ * @author Tsoi Yat Shing
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DetectionBenchmark {
+	// The kind of the file, see Corpus.getFile().
+	@Param({"UTF-8", "Big5", "Shift_JIS", "windows-1250", "windows-1251", "windows-1252", Corpus.MIXED, Corpus.CORRUPT})
+	public String kind;
+
+	// The size of the file, see Corpus.parseSize(), larger sizes like 1GB can be given by -p size=1GB.
+	@Param({"1KB", "1MB", "64MB"})
+	public String size;
+
+	private File file;
+
+	private String encoding;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		file = Corpus.getFile(kind, size);
+		encoding = Corpus.getEncoding(kind);
+	}
+
+	/**
+	 * Count the bytes processed in MB, so that the throughput in MB per second is reported.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Bytes {
+		private static final double MEGABYTE = 1024 * 1024;
+
+		public double mb;
+
+		private void add(long count) {
+			mb += count / MEGABYTE;
+		}
+
+		/**
+		 * Count the bytes checked by a detection, which is not the whole file if it is sampled.
+		 */
+		DetectionResult count(DetectionResult result) {
+			if (result != null) {
+				add(Math.max(0, result.getCheckedLength()));
+			}
+			return result;
+		}
+
+		/**
+		 * Count the bytes read from an input stream, which is not the whole stream if the reader stops early.
+		 */
+		InputStream count(InputStream in) {
+			return new FilterInputStream(in) {
+				@Override
+				public int read() throws IOException {
+					int b = super.read();
+					if (b >= 0) {
+						add(1);
+					}
+					return b;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					int count = super.read(b, off, len);
+					if (count > 0) {
+						add(count);
+					}
+					return count;
+				}
+
+				@Override
+				public long skip(long n) throws IOException {
+					long count = super.skip(n);
+					add(count);
+					return count;
+				}
+			};
+		}
+	}
+
+	/**
+	 * Detect the file as the handlers do for a local file, i.e. EncodingUtil.detect(File, String).
+	 */
+	@Benchmark
+	public DetectionResult detectFile(Bytes bytes) throws IOException {
+		return bytes.count(EncodingUtil.detect(file, encoding));
+	}
+
+	/**
+	 * Detect the file as the handlers do for a remote file, i.e. EncodingUtil.detect(InputStream, String).
+	 */
+	@Benchmark
+	public DetectionResult detectStream(Bytes bytes) throws IOException {
+		return bytes.count(EncodingUtil.detect(new FileInputStream(file), encoding));
+	}
+
+	/**
+	 * Detect the file with ICU only, i.e. BaselineDetection.detectCharsets(), which reads the beginning of the file only.
+	 */
+	@Benchmark
+	public CharsetMatch[] detectCharsets(Bytes bytes) throws IOException {
+		return BaselineDetection.detectCharsets(new BufferedInputStream(bytes.count(new FileInputStream(file))));
+	}
+
+	/**
+	 * Validate the whole file, i.e. BaselineDetection.isDecodable().
+	 */
+	@Benchmark
+	public boolean isDecodable(Bytes bytes) throws IOException {
+		return BaselineDetection.isDecodable(bytes.count(new FileInputStream(file)), encoding);
+	}
+}
@@ -0,0 +1,18 @@
+package tsoiyatshing.fileencodinginfo.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+/**
+ * Run the benchmarks of DetectionBenchmark in the sample time mode, for the latency percentiles.
+ * Separated from DetectionBenchmark, which reports the throughput per second, as the latencies of small files are only microseconds.
+ * @author Tsoi Yat Shing
+ *
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DetectionLatencyBenchmark extends DetectionBenchmark {
+}
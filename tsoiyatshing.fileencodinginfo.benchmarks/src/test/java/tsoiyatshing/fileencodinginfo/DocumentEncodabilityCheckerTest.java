@@ -0,0 +1,213 @@
+package tsoiyatshing.fileencodinginfo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.Document;
+import org.eclipse.jface.text.IDocument;
+import org.junit.Test;
+
+/**
+ * Test DocumentEncodabilityChecker, especially the surrogate pairs at the boundaries of the regions and the chunks checked.
+ * @author Tsoi Yat Shing
+ *
+ */
+public class DocumentEncodabilityCheckerTest {
+	// An emoji, which is a surrogate pair.
+	private static final String EMOJI = "\uD83D\uDE00";
+
+	// The number of characters checked at once by the checker.
+	private static final int CHUNK_SIZE = 4096;
+
+	/**
+	 * Run the tasks when asked, so that the document can be changed while it is being checked.
+	 */
+	private static class QueueExecutor implements Executor {
+		private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+		@Override
+		public void execute(Runnable task) {
+			tasks.add(task);
+		}
+
+		/**
+		 * Run the tasks queued so far.
+		 * @return the number of tasks run.
+		 */
+		int runAll() {
+			List<Runnable> queued_tasks = new ArrayList<Runnable>(tasks);
+			tasks.clear();
+			for (Runnable task: queued_tasks) {
+				task.run();
+			}
+			return queued_tasks.size();
+		}
+	}
+
+	/**
+	 * Create a checker which is passed the events of the document, and check the whole document.
+	 */
+	private static DocumentEncodabilityChecker check(IDocument document, String encoding) {
+		DocumentEncodabilityChecker checker = new DocumentEncodabilityChecker(document, encoding);
+		document.addDocumentListener(checker);
+		checker.update();
+		return checker;
+	}
+
+	private static String repeat(char c, int count) {
+		StringBuilder text = new StringBuilder(count);
+		for (int i = 0; i < count; i++) {
+			text.append(c);
+		}
+		return text.toString();
+	}
+
+	@Test
+	public void testUnencodableCharacters() {
+		DocumentEncodabilityChecker checker = check(new Document("caf\u00E9 \u4E2D\u6587 " + EMOJI), "ISO-8859-1");
+		assertTrue(checker.isChecked());
+		// A surrogate pair is one character.
+		assertEquals(3, checker.getUnencodableCount());
+
+		assertEquals(0, check(new Document("caf\u00E9 \u4E2D\u6587 " + EMOJI), "UTF-8").getUnencodableCount());
+	}
+
+	@Test
+	public void testTypingAfterSurrogatePair() throws BadLocationException {
+		// The changed region starts at the low surrogate.
+		IDocument document = new Document("a" + EMOJI);
+		DocumentEncodabilityChecker utf8_checker = check(document, "UTF-8");
+		DocumentEncodabilityChecker latin1_checker = check(document, "ISO-8859-1");
+		for (int i = 0; i < 3; i++) {
+			document.replace(document.getLength(), 0, "b");
+			assertEquals(0, utf8_checker.getUnencodableCount());
+			assertEquals(1, latin1_checker.getUnencodableCount());
+		}
+
+		// The changed region ends at the high surrogate.
+		document.replace(1, 0, "c");
+		assertEquals(0, utf8_checker.getUnencodableCount());
+		assertEquals(1, latin1_checker.getUnencodableCount());
+
+		document.replace(2, 2, "");
+		assertEquals(0, latin1_checker.getUnencodableCount());
+	}
+
+	@Test
+	public void testSurrogatePairFormedAndBroken() throws BadLocationException {
+		IDocument document = new Document("a\uD83Db");
+		DocumentEncodabilityChecker checker = check(document, "UTF-8");
+		// A lone surrogate cannot be encoded.
+		assertEquals(1, checker.getUnencodableCount());
+
+		document.replace(2, 1, "\uDE00");
+		assertEquals(0, checker.getUnencodableCount());
+
+		document.replace(2, 0, "x");
+		assertEquals(2, checker.getUnencodableCount());
+
+		document.replace(2, 1, "");
+		assertEquals(0, checker.getUnencodableCount());
+	}
+
+	@Test
+	public void testSurrogatePairAtChunkEnd() throws BadLocationException {
+		// The surrogate pair is split by the chunks, unless the chunk is extended.
+		IDocument document = new Document(repeat('a', CHUNK_SIZE - 1) + EMOJI + repeat('a', CHUNK_SIZE));
+		assertEquals(0, check(document, "UTF-8").getUnencodableCount());
+		assertEquals(1, check(document, "ISO-8859-1").getUnencodableCount());
+
+		// A pasted text is checked in chunks too.
+		document = new Document("a");
+		DocumentEncodabilityChecker checker = check(document, "UTF-8");
+		document.replace(0, 0, repeat('a', CHUNK_SIZE - 2) + EMOJI + EMOJI);
+		assertEquals(0, checker.getUnencodableCount());
+	}
+
+	@Test
+	public void testOffsetsShifted() throws BadLocationException {
+		IDocument document = new Document("\u4E2Dab\u6587");
+		DocumentEncodabilityChecker checker = check(document, "ISO-8859-1");
+		assertEquals(2, checker.getUnencodableCount());
+
+		// The offsets after the change are shifted, so that the characters are not counted twice.
+		document.replace(1, 0, "xyz");
+		document.replace(0, 0, "\u00E9");
+		assertEquals(2, checker.getUnencodableCount());
+
+		// The offset of the last character is removed when it is deleted.
+		document.replace(document.getLength() - 1, 1, "");
+		assertEquals(1, checker.getUnencodableCount());
+		document.replace(1, 1, "");
+		assertEquals(0, checker.getUnencodableCount());
+	}
+
+	@Test
+	public void testStartCheck() throws BadLocationException {
+		IDocument document = new Document("\u4E2D" + EMOJI);
+		DocumentEncodabilityChecker checker = new DocumentEncodabilityChecker(document, "ISO-8859-1");
+		document.addDocumentListener(checker);
+		QueueExecutor worker_executor = new QueueExecutor();
+		QueueExecutor owner_executor = new QueueExecutor();
+		final int[] callback_count = new int[1];
+		Runnable callback = new Runnable() {
+			@Override
+			public void run() {
+				callback_count[0]++;
+			}
+		};
+
+		checker.startCheck(worker_executor, owner_executor, callback);
+		// Only one check is running.
+		checker.startCheck(worker_executor, owner_executor, callback);
+		assertEquals(-1, checker.getUnencodableCount());
+		assertEquals(1, worker_executor.runAll());
+
+		// The document is changed before the results are applied, so it is checked again.
+		document.replace(0, 0, "\u6587");
+		assertEquals(1, owner_executor.runAll());
+		assertFalse(checker.isChecked());
+		assertEquals(0, callback_count[0]);
+
+		assertEquals(1, worker_executor.runAll());
+		assertEquals(1, owner_executor.runAll());
+		assertTrue(checker.isChecked());
+		assertEquals(3, checker.getUnencodableCount());
+		assertEquals(1, callback_count[0]);
+
+		// Only the changed regions are checked afterwards.
+		checker.startCheck(worker_executor, owner_executor, callback);
+		assertEquals(0, worker_executor.runAll());
+		document.replace(0, 1, "a");
+		assertEquals(2, checker.getUnencodableCount());
+	}
+
+	@Test
+	public void testDispose() {
+		IDocument document = new Document("\u4E2D");
+		DocumentEncodabilityChecker checker = new DocumentEncodabilityChecker(document, "ISO-8859-1");
+		QueueExecutor worker_executor = new QueueExecutor();
+		QueueExecutor owner_executor = new QueueExecutor();
+		checker.startCheck(worker_executor, owner_executor, new Runnable() {
+			@Override
+			public void run() {
+			}
+		});
+		checker.dispose();
+		worker_executor.runAll();
+		// The results are not applied.
+		assertEquals(0, owner_executor.runAll());
+		assertFalse(checker.isChecked());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnsupportedEncoding() {
+		new DocumentEncodabilityChecker(new Document(), "no-such-encoding");
+	}
+}
@@ -0,0 +1,138 @@
+package tsoiyatshing.fileencodinginfo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Test StreamTranscoder, including the BOM and the error offsets, which may be in any read of the stream.
+ * @author Tsoi Yat Shing
+ *
+ */
+public class StreamTranscoderTest {
+	/**
+	 * Read at most a number of bytes at a time, so that a character may be split by the reads.
+	 */
+	private static InputStream limitReads(InputStream in, final int read_size) {
+		return new FilterInputStream(in) {
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				return super.read(b, off, Math.min(len, read_size));
+			}
+		};
+	}
+
+	private static byte[] transcode(StreamTranscoder transcoder, byte[] data, int read_size) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(data.length, transcoder.transcode(limitReads(new ByteArrayInputStream(data), read_size), out));
+		return out.toByteArray();
+	}
+
+	/**
+	 * Get the message of the exception thrown by transcoding data.
+	 */
+	private static String getErrorMessage(StreamTranscoder transcoder, byte[] data) {
+		try {
+			transcoder.transcode(new ByteArrayInputStream(data), new ByteArrayOutputStream());
+		} catch (IOException e) {
+			return e.getMessage();
+		}
+		fail("The data should not be converted.");
+		return null;
+	}
+
+	@Test
+	public void testConversion() throws IOException {
+		String text = "caf\u00E9 \u4E2D\u6587\r\n\uD83D\uDE00";
+		byte[] data = text.getBytes("UTF-8");
+		StreamTranscoder transcoder = new StreamTranscoder("UTF-8", "UTF-16LE");
+		// The characters may be split by the reads.
+		for (int read_size = 1; read_size <= data.length; read_size++) {
+			assertArrayEquals(text.getBytes("UTF-16LE"), transcode(transcoder, data, read_size));
+		}
+
+		transcoder = new StreamTranscoder("Big5", "UTF-8");
+		assertArrayEquals("\u4E2D\u6587".getBytes("UTF-8"), transcode(transcoder, "\u4E2D\u6587".getBytes("Big5"), 1));
+	}
+
+	@Test
+	public void testLargeStream() throws IOException {
+		// Larger than the buffers, which are filled and flushed several times.
+		char[] chars = new char[200000];
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = (char)(i % 3 == 0 ? '\n' : 0x4E00 + i % 1000);
+		}
+		String text = new String(chars);
+		StreamTranscoder transcoder = new StreamTranscoder("UTF-8", "GB18030");
+		assertArrayEquals(text.getBytes("GB18030"), transcode(transcoder, text.getBytes("UTF-8"), Integer.MAX_VALUE));
+	}
+
+	@Test
+	public void testBom() throws IOException {
+		StreamTranscoder transcoder = new StreamTranscoder("UTF-8", "windows-1252");
+		// The BOM is dropped, even if the first read has only a part of it.
+		for (int read_size = 1; read_size <= 4; read_size++) {
+			assertArrayEquals("caf\u00E9".getBytes("windows-1252"), transcode(transcoder, "\uFEFFcaf\u00E9".getBytes("UTF-8"), read_size));
+		}
+		// Only the BOM at the start is dropped, the instance can be reused.
+		assertArrayEquals(new byte[] {'a', 'b'}, transcode(transcoder, "ab".getBytes("UTF-8"), 1));
+
+		// UTF-16 writes its own BOM, there is no duplicated BOM.
+		transcoder = new StreamTranscoder("UTF-8", "UTF-16");
+		assertArrayEquals(new byte[] {(byte)0xFE, (byte)0xFF, 0, 'a'}, transcode(transcoder, "\uFEFFa".getBytes("UTF-8"), 1));
+
+		// The BOM of the source encoding is not a character of the document.
+		transcoder = new StreamTranscoder("UTF-16", "UTF-8");
+		assertArrayEquals(new byte[] {'a'}, transcode(transcoder, new byte[] {(byte)0xFF, (byte)0xFE, 'a', 0}, 3));
+	}
+
+	@Test
+	public void testDecodingErrorOffset() throws IOException {
+		StreamTranscoder transcoder = new StreamTranscoder("UTF-8", "UTF-16LE");
+		byte[] data = "ab\u00E9cd".getBytes("UTF-8");
+		data[4] = (byte)0xFF;
+		assertEquals("The byte at 4 cannot be decoded in UTF-8", getErrorMessage(transcoder, data));
+
+		// The error is in a later read, after an incomplete character kept from the last read.
+		data = new byte[200000];
+		Arrays.fill(data, (byte)'a');
+		int offset = 64 * 1024 - 1;
+		data[offset] = (byte)0xE4;
+		data[offset + 1] = (byte)0xB8;
+		data[offset + 2] = 'x';
+		assertEquals("The byte at " + offset + " cannot be decoded in UTF-8", getErrorMessage(transcoder, data));
+
+		// An incomplete character at the end of the stream.
+		data = new byte[] {'a', (byte)0xE4, (byte)0xB8};
+		assertEquals("The byte at 1 cannot be decoded in UTF-8", getErrorMessage(transcoder, data));
+	}
+
+	@Test
+	public void testEncodingErrorOffset() throws IOException {
+		StreamTranscoder transcoder = new StreamTranscoder("UTF-8", "windows-1252");
+		// The offset is in characters, counting the BOM dropped.
+		String message = getErrorMessage(transcoder, "\uFEFFab\u00E9\u4E2D".getBytes("UTF-8"));
+		assertEquals("The character at 4 cannot be encoded in windows-1252", message);
+
+		char[] chars = new char[100000];
+		Arrays.fill(chars, 'a');
+		chars[chars.length - 1] = '\u4E2D';
+		message = getErrorMessage(transcoder, new String(chars).getBytes("UTF-8"));
+		assertTrue(message, message.startsWith("The character at " + (chars.length - 1) + " "));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnsupportedEncoding() {
+		new StreamTranscoder("UTF-8", "no-such-encoding");
+	}
+}
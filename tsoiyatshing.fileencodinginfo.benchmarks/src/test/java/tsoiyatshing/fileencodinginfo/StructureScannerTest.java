@@ -0,0 +1,167 @@
+package tsoiyatshing.fileencodinginfo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.UnsupportedEncodingException;
+
+import org.junit.Test;
+
+/**
+ * Test StructureScanner, including the line endings and the characters split by the chunks.
+ * @author Tsoi Yat Shing
+ *
+ */
+public class StructureScannerTest {
+	/**
+	 * Scan the data in chunks of a size, as a whole document.
+	 */
+	private static DocumentStructure scan(String encoding, byte[] data, int chunk_size, long error_offset) {
+		StructureScanner scanner = new StructureScanner(encoding, data, data.length);
+		scanner.setErrorOffset(error_offset);
+		for (int offset = 0; offset < data.length; offset += chunk_size) {
+			scanner.update(data, offset, Math.min(chunk_size, data.length - offset), offset);
+		}
+		scanner.finish();
+		return scanner.createStructure();
+	}
+
+	/**
+	 * Join the parts encoded by different encodings.
+	 */
+	private static byte[] join(String... encodings_and_texts) throws UnsupportedEncodingException {
+		StringBuilder latin1 = new StringBuilder();
+		for (int i = 0; i < encodings_and_texts.length; i += 2) {
+			latin1.append(new String(encodings_and_texts[i + 1].getBytes(encodings_and_texts[i]), "ISO-8859-1"));
+		}
+		return latin1.toString().getBytes("ISO-8859-1");
+	}
+
+	@Test
+	public void testLineEndings() throws UnsupportedEncodingException {
+		byte[] data = "a\nb\r\nc\rd\n\r\ne\r".getBytes("US-ASCII");
+		// CRLF may be split by the chunks.
+		for (int chunk_size = 1; chunk_size <= data.length; chunk_size++) {
+			DocumentStructure structure = scan("UTF-8", data, chunk_size, -1);
+			assertEquals(2, structure.getLfCount());
+			assertEquals(2, structure.getCrlfCount());
+			assertEquals(2, structure.getCrCount());
+			assertTrue(structure.isLineEndingMixed());
+			assertEquals(0, structure.getRegionCount());
+			assertTrue(structure.isComplete());
+		}
+
+		DocumentStructure structure = scan("UTF-8", "a\r\nb\r\n".getBytes("US-ASCII"), 3, -1);
+		assertEquals(0, structure.getLfCount());
+		assertEquals(2, structure.getCrlfCount());
+		assertEquals(0, structure.getCrCount());
+		assertFalse(structure.isLineEndingMixed());
+	}
+
+	@Test
+	public void testRegions() throws UnsupportedEncodingException {
+		byte[] data = join("US-ASCII", "ascii\n", "UTF-8", "caf\u00E9\n\u4E2D\u6587\n", "windows-1252", "caf\u00E9\n", "UTF-8", "\uD83D\uDE00\n");
+		for (int chunk_size = 1; chunk_size <= data.length; chunk_size++) {
+			DocumentStructure structure = scan("UTF-8", data, chunk_size, -1);
+			assertEquals("chunk " + chunk_size, 3, structure.getRegionCount());
+			assertTrue(structure.isMixed());
+
+			// The first region starts at the start of the document.
+			assertEquals(0, structure.getRegionOffset(0));
+			assertEquals(1, structure.getRegionLine(0));
+			assertTrue(structure.isRegionUtf8(0));
+
+			assertEquals(19, structure.getRegionOffset(1));
+			assertEquals(4, structure.getRegionLine(1));
+			assertFalse(structure.isRegionUtf8(1));
+
+			assertEquals(24, structure.getRegionOffset(2));
+			assertEquals(5, structure.getRegionLine(2));
+			assertTrue(structure.isRegionUtf8(2));
+		}
+	}
+
+	@Test
+	public void testIncompleteCharacterAtEnd() throws UnsupportedEncodingException {
+		// The document ends in the middle of a character.
+		byte[] data = join("UTF-8", "a\u4E2D\nb");
+		byte[] truncated = new byte[data.length + 1];
+		System.arraycopy(data, 0, truncated, 0, data.length);
+		truncated[data.length] = (byte)0xE4;
+		DocumentStructure structure = scan("UTF-8", truncated, truncated.length, -1);
+		assertEquals(2, structure.getRegionCount());
+		assertTrue(structure.isRegionUtf8(0));
+		assertEquals(5, structure.getRegionOffset(1));
+		assertFalse(structure.isRegionUtf8(1));
+
+		// A sample may end in the middle of a character.
+		StructureScanner scanner = new StructureScanner("UTF-8", truncated, truncated.length);
+		scanner.update(truncated, 0, truncated.length, 0);
+		structure = scanner.createStructure();
+		assertEquals(1, structure.getRegionCount());
+		assertTrue(structure.isRegionUtf8(0));
+	}
+
+	@Test
+	public void testErrorLine() throws UnsupportedEncodingException {
+		byte[] data = join("UTF-8", "a\r\nb\n", "windows-1252", "\u00E9\n", "UTF-8", "c");
+		for (int chunk_size = 1; chunk_size <= data.length; chunk_size++) {
+			DocumentStructure structure = scan("UTF-8", data, chunk_size, 5);
+			assertEquals(3, structure.getErrorLine());
+		}
+		assertEquals(-1, scan("UTF-8", data, data.length, -1).getErrorLine());
+	}
+
+	@Test
+	public void testSkippedData() throws UnsupportedEncodingException {
+		// The lines are not known after the data skipped, e.g. only the head and the tail are checked.
+		byte[] head = "a\nb\n".getBytes("US-ASCII");
+		byte[] tail = join("windows-1252", "\u00E9\n");
+		StructureScanner scanner = new StructureScanner("UTF-8", head, head.length);
+		scanner.update(head, 0, head.length, 0);
+		scanner.update(tail, 0, tail.length, 1000);
+		DocumentStructure structure = scanner.createStructure();
+		assertFalse(structure.isComplete());
+		assertEquals(3, structure.getLfCount());
+		assertEquals(1, structure.getRegionCount());
+		// The first region starts at the start of the document.
+		assertEquals(0, structure.getRegionOffset(0));
+		assertFalse(structure.isRegionUtf8(0));
+
+		// The continuation bytes at the start of the skipped data belong to a character before it.
+		byte[] middle = join("UTF-8", "\u4E2D\u6587\n");
+		scanner = new StructureScanner("UTF-8", head, head.length);
+		scanner.update(head, 0, head.length, 0);
+		scanner.update(middle, 1, middle.length - 1, 1001);
+		structure = scanner.createStructure();
+		assertEquals(1, structure.getRegionCount());
+		assertTrue(structure.isRegionUtf8(0));
+	}
+
+	@Test
+	public void testBom() throws UnsupportedEncodingException {
+		byte[] data = join("UTF-8", "\uFEFFa\n\u00E9\n");
+		StructureScanner scanner = new StructureScanner("UTF-8", data, data.length);
+		assertTrue(scanner.isLineChecked());
+		scanner.update(data, 0, data.length, 0);
+		scanner.finish();
+		DocumentStructure structure = scanner.createStructure();
+		assertEquals("UTF-8", structure.getBom());
+		assertEquals(2, structure.getLfCount());
+		assertEquals(1, structure.getRegionCount());
+		assertTrue(structure.isRegionUtf8(0));
+
+		// CR and LF are not single bytes in UTF-16.
+		data = "\uFEFFa\nb\n".getBytes("UTF-16BE");
+		scanner = new StructureScanner("UTF-16", data, data.length);
+		assertFalse(scanner.isLineChecked());
+		scanner.update(data, 0, data.length, 0);
+		scanner.finish();
+		structure = scanner.createStructure();
+		assertNotNull(structure.getBom());
+		assertEquals(-1, structure.getLfCount());
+		assertEquals(0, structure.getRegionCount());
+	}
+}
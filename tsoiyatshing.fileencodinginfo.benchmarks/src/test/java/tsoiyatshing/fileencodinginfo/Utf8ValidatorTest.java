@@ -0,0 +1,159 @@
+package tsoiyatshing.fileencodinginfo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test Utf8Validator, especially that the error offsets are the same as the decoder of the JRE.
+ * @author Tsoi Yat Shing
+ *
+ */
+public class Utf8ValidatorTest {
+	private static ByteBuffer bytes(int... values) {
+		byte[] data = new byte[values.length];
+		for (int i = 0; i < values.length; i++) {
+			data[i] = (byte)values[i];
+		}
+		return ByteBuffer.wrap(data);
+	}
+
+	/**
+	 * Get the index of the first malformed byte found by the decoder of the JRE, or the length if the data is valid.
+	 */
+	private static int decodeErrorIndex(ByteBuffer data) {
+		CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder();
+		ByteBuffer in = data.duplicate();
+		CharBuffer out = CharBuffer.allocate(in.remaining() + 1);
+		CoderResult result = decoder.decode(in, out, true);
+		return result.isError() ? in.position() : data.limit();
+	}
+
+	@Test
+	public void testValidData() throws CharacterCodingException {
+		ByteBuffer data = Charset.forName("UTF-8").newEncoder().encode(CharBuffer.wrap("ASCII text, caf\u00E9, \u4E2D\u6587, \uD83D\uDE00 and more ASCII text"));
+		assertEquals(data.limit(), Utf8Validator.validateUtf8(data, 0, data.limit()));
+		assertEquals(15, Utf8Validator.validateAscii(data, 0, data.limit()));
+		assertEquals(4, Utf8Validator.countSequences(data, 0, data.limit()));
+	}
+
+	@Test
+	public void testMalformedSequences() {
+		// Overlong forms, surrogates, larger than U+10FFFF, and bytes which are never used.
+		int[][] sequences = {{0xC0, 0x80}, {0xC1, 0xBF}, {0xE0, 0x80, 0x80}, {0xED, 0xA0, 0x80}, {0xF0, 0x80, 0x80, 0x80}, {0xF4, 0x90, 0x80, 0x80}, {0xF5, 0x80, 0x80, 0x80}, {0xFF}, {0x80}};
+		for (int[] sequence: sequences) {
+			int[] values = new int[sequence.length + 2];
+			values[0] = 'a';
+			values[1] = 'b';
+			System.arraycopy(sequence, 0, values, 2, sequence.length);
+			ByteBuffer data = bytes(values);
+			assertEquals(2, Utf8Validator.validateUtf8(data, 0, data.limit()));
+			assertFalse(Utf8Validator.isIncomplete(data, 2, data.limit()));
+			assertEquals(-1, Utf8Validator.countSequences(data, 0, data.limit()));
+		}
+	}
+
+	@Test
+	public void testIncompleteSequences() {
+		int[][] sequences = {{0xC3}, {0xE4}, {0xE4, 0xB8}, {0xF0, 0x9F}, {0xF0, 0x9F, 0x98}};
+		int[] missing_lengths = {1, 2, 1, 2, 1};
+		for (int n = 0; n < sequences.length; n++) {
+			int[] sequence = sequences[n];
+			int[] values = new int[sequence.length + 3];
+			values[0] = 'a';
+			values[1] = 0xC3;
+			values[2] = 0xA9;
+			System.arraycopy(sequence, 0, values, 3, sequence.length);
+			ByteBuffer data = bytes(values);
+			assertEquals(3, Utf8Validator.validateUtf8(data, 0, data.limit()));
+			assertTrue(Utf8Validator.isIncomplete(data, 3, data.limit()));
+			assertEquals(missing_lengths[n], Utf8Validator.getMissingLength(data, 3, data.limit()));
+			// The data may be the beginning of a document.
+			assertEquals(1, Utf8Validator.countSequences(data, 0, data.limit()));
+		}
+
+		// The sequence is malformed before the limit.
+		ByteBuffer data = bytes(0xE4, 'a');
+		assertFalse(Utf8Validator.isIncomplete(data, 0, data.limit()));
+		data = bytes(0xE0, 0x80);
+		assertFalse(Utf8Validator.isIncomplete(data, 0, data.limit()));
+	}
+
+	@Test
+	public void testLimit() {
+		// The bytes after the limit are not checked.
+		ByteBuffer data = bytes('a', 'b', 'c', 0xFF, 0xFF);
+		assertEquals(3, Utf8Validator.validateUtf8(data, 0, 3));
+		assertEquals(3, Utf8Validator.validateAscii(data, 1, 3));
+		assertEquals(0, Utf8Validator.countSequences(data, 0, 3));
+	}
+
+	@Test
+	public void testZeroByte() {
+		ByteBuffer data = bytes('a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', 0, 'j');
+		assertEquals(data.limit(), Utf8Validator.validateUtf8(data, 0, data.limit()));
+		// UTF-16 without BOM is not detected as UTF-8.
+		assertEquals(-1, Utf8Validator.countSequences(data, 0, data.limit()));
+
+		assertFalse(Utf8Validator.hasZeroByte(0x0102030405060708L));
+		assertFalse(Utf8Validator.hasZeroByte(0x8080808080808080L));
+		for (int i = 0; i < 8; i++) {
+			assertTrue(Utf8Validator.hasZeroByte(0x0101010101010101L & ~(0xFFL << (i * 8))));
+		}
+	}
+
+	@Test
+	public void testErrorOffsetInEachPosition() {
+		// The ASCII runs are checked 8 bytes at a time, so the error may be in any position of a word.
+		for (int length = 1; length <= 24; length++) {
+			for (int error_index = 0; error_index < length; error_index++) {
+				int[] values = new int[length];
+				for (int i = 0; i < length; i++) {
+					values[i] = 'a' + i;
+				}
+				values[error_index] = 0xFF;
+				ByteBuffer data = bytes(values);
+				assertEquals(error_index, Utf8Validator.validateUtf8(data, 0, length));
+				assertEquals(error_index, Utf8Validator.validateAscii(data, 0, length));
+			}
+		}
+	}
+
+	@Test
+	public void testErrorOffsetsSameAsDecoder() {
+		// Random data mostly ASCII and valid sequences, with some bytes changed.
+		Random random = new Random(1);
+		String[] texts = {"a", "bc", "\n", "\u00E9", "\u07FF", "\u0800", "\u4E2D", "\uFFFF", "\uD83D\uDE00"};
+		Charset utf8 = Charset.forName("UTF-8");
+		for (int n = 0; n < 20000; n++) {
+			StringBuilder text = new StringBuilder();
+			int count = random.nextInt(20);
+			for (int i = 0; i < count; i++) {
+				text.append(texts[random.nextInt(texts.length)]);
+			}
+			byte[] data = text.toString().getBytes(utf8);
+			if (data.length > 0 && random.nextInt(4) != 0) {
+				data[random.nextInt(data.length)] = (byte)random.nextInt(256);
+			}
+			int length = data.length > 0 && random.nextBoolean() ? random.nextInt(data.length) : data.length;
+			ByteBuffer buffer = ByteBuffer.wrap(data, 0, length).slice();
+
+			int index = Utf8Validator.validateUtf8(buffer, 0, length);
+			assertEquals(decodeErrorIndex(buffer), index);
+			if (index < length && Utf8Validator.isIncomplete(buffer, index, length)) {
+				// Only the end of the data is incomplete.
+				assertTrue(length - index < 4);
+			}
+		}
+	}
+}
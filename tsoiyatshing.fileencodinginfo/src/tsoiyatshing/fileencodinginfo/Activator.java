@@ -1,7 +1,21 @@
 package tsoiyatshing.fileencodinginfo;
 
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Hashtable;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.osgi.service.debug.DebugOptions;
+import org.eclipse.osgi.service.debug.DebugOptionsListener;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
 
 /**
  * The activator class controls the plug-in life cycle
@@ -14,6 +28,24 @@ public class Activator extends AbstractUIPlugin {
 	// The shared instance
 	private static Activator plugin;
 	
+	// Run encoding detection in background threads.
+	private DetectionExecutor detection_executor;
+	
+	// Cache the detection results of the documents.
+	private DetectionCache detection_cache;
+	
+	// Persist the detection results in the state location.
+	private DetectionIndex detection_index;
+	
+	// Receive the debug options for tracing the detection.
+	private ServiceRegistration<?> debug_options_registration;
+	
+	// The name of the registered statistics MBean, or null if not registered.
+	private ObjectName statistics_name;
+	
+	// Share the agents among the contributions of each workbench window.
+	private ActiveDocumentAgentRegistry agent_registry;
+	
 	/**
 	 * The constructor
 	 */
@@ -27,6 +59,55 @@ public class Activator extends AbstractUIPlugin {
 	public void start(BundleContext context) throws Exception {
 		super.start(context);
 		plugin = this;
+		detection_executor = new DetectionExecutor();
+		// Include the detectors contributed by other plug-ins.
+		EncodingUtil.setDetectors(EncodingDetectorRegistry.getDetectors());
+		EncodingUtil.setValidationExecutor(detection_executor.getValidationExecutor());
+		// The index file is loaded when the index is first used.
+		detection_index = new DetectionIndex(new File(getStateLocation().toFile(), "detection.index"));
+		detection_cache = new DetectionCache(detection_index);
+		agent_registry = new ActiveDocumentAgentRegistry();
+		
+		// The listener is called with the current debug options when registered.
+		Hashtable<String, String> properties = new Hashtable<String, String>();
+		properties.put(DebugOptions.LISTENER_SYMBOLICNAME, PLUGIN_ID);
+		debug_options_registration = context.registerService(DebugOptionsListener.class.getName(), DetectionStatistics.getDefault(), properties);
+		registerStatistics();
+	}
+
+	/**
+	 * Register the statistics MBean in the platform MBean server, so that it can be read by JMX clients.
+	 */
+	private void registerStatistics() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(DetectionStatistics.OBJECT_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(DetectionStatistics.getDefault(), name);
+				statistics_name = name;
+			}
+		} catch (JMException e) {
+			// The statistics are still collected and traced.
+			log(IStatus.WARNING, "Cannot register the detection statistics.", e);
+		} catch (SecurityException e) {
+			// The statistics are still collected and traced.
+			log(IStatus.WARNING, "Cannot register the detection statistics.", e);
+		}
+	}
+
+	/**
+	 * Unregister the statistics MBean, if registered.
+	 */
+	private void unregisterStatistics() {
+		if (statistics_name == null) return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(statistics_name);
+		} catch (InstanceNotFoundException e) {
+			// Unregistered by a JMX client already.
+		} catch (JMException e) {
+			log(IStatus.WARNING, "Cannot unregister the detection statistics.", e);
+		}
+		statistics_name = null;
 	}
 
 	/*
@@ -34,6 +115,18 @@ public class Activator extends AbstractUIPlugin {
 	 * @see org.eclipse.ui.plugin.AbstractUIPlugin#stop(org.osgi.framework.BundleContext)
 	 */
 	public void stop(BundleContext context) throws Exception {
+		unregisterStatistics();
+		debug_options_registration.unregister();
+		debug_options_registration = null;
+		agent_registry.dispose();
+		agent_registry = null;
+		detection_executor.shutdown();
+		detection_executor = null;
+		EncodingUtil.setDetectors(null);
+		EncodingUtil.setValidationExecutor(null);
+		detection_index.close();
+		detection_index = null;
+		detection_cache = null;
 		plugin = null;
 		super.stop(context);
 	}
@@ -47,4 +140,45 @@ public class Activator extends AbstractUIPlugin {
 		return plugin;
 	}
 
+	/**
+	 * Logs a problem in the log of the plug-in, ignored if the plug-in is stopped
+	 *
+	 * @param severity the severity, e.g. IStatus.WARNING
+	 * @param message the message
+	 * @param e the cause, may be null
+	 */
+	static void log(int severity, String message, Throwable e) {
+		Activator plugin = getDefault();
+		if (plugin != null) {
+			plugin.getLog().log(new Status(severity, PLUGIN_ID, message, e));
+		}
+	}
+
+	/**
+	 * Returns the registry of the agents shared by the contributions of each workbench window
+	 *
+	 * @return the registry, or null if the plug-in is stopped
+	 */
+	public ActiveDocumentAgentRegistry getAgentRegistry() {
+		return agent_registry;
+	}
+
+	/**
+	 * Returns the cache of the detection results
+	 *
+	 * @return the cache, or null if the plug-in is stopped
+	 */
+	public DetectionCache getDetectionCache() {
+		return detection_cache;
+	}
+
+	/**
+	 * Returns the executor for running encoding detection in background threads
+	 *
+	 * @return the executor, or null if the plug-in is stopped
+	 */
+	public DetectionExecutor getDetectionExecutor() {
+		return detection_executor;
+	}
+
 }
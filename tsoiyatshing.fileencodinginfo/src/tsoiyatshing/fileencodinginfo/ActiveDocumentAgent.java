@@ -1,6 +1,22 @@
 package tsoiyatshing.fileencodinginfo;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.ui.IEditorInput;
 import org.eclipse.ui.IEditorPart;
 import org.eclipse.ui.IFileEditorInput;
@@ -12,8 +28,9 @@ import org.eclipse.ui.IWorkbenchPart;
 import org.eclipse.ui.IWorkbenchWindow;
 import org.eclipse.ui.editors.text.IEncodingSupport;
 import org.eclipse.ui.ide.FileStoreEditorInput;
+import org.eclipse.ui.texteditor.IDocumentProvider;
+import org.eclipse.ui.texteditor.ITextEditor;
 
-import com.ibm.icu.text.CharsetMatch;
 
 
 /**
@@ -21,13 +38,24 @@ import com.ibm.icu.text.CharsetMatch;
  * @author Tsoi Yat Shing
  *
  */
-public class ActiveDocumentAgent implements IPartListener, IPropertyListener {
+public class ActiveDocumentAgent implements IPartListener, IPropertyListener, IResourceChangeListener {
 	// Callback for this agent.
 	private IActiveDocumentAgentCallback callback;
 	
 	// The current handler for the agent.
 	private IActiveDocumentAgentHandler current_handler;
 	
+	// The handlers of the opened editors, so that the encoding information can be reused when switching back to an editor.
+	// The handlers refer to their editors, so a weak-keyed map cannot release them, they are removed when the editors are closed.
+	private Map<IEditorPart, IActiveDocumentAgentHandler> handlers = new HashMap<IEditorPart, IActiveDocumentAgentHandler>();
+	
+	// The full paths of the changed resources, which are not yet passed to the handlers.
+	// Also used as the lock of is_resource_change_scheduled.
+	private final Set<IPath> changed_paths = new HashSet<IPath>();
+	
+	// Indicate whether passing the changed resources to the handlers is scheduled, so that the changes can be batched.
+	private boolean is_resource_change_scheduled = false;
+	
 	// Indicate whether the agent has started monitoring the encoding of the active document.
 	private boolean is_started = false;
 	
@@ -58,13 +86,21 @@ public class ActiveDocumentAgent implements IPartListener, IPropertyListener {
 	}
 	
 	/**
-	 * Get the detected encodings (and their confidences) of the active document using ICU, if supported by the editor and the editor input.
+	 * Get the detected encodings (and their confidences) of the active document, if supported by the editor and the editor input.
 	 * @return the detected encodings or null.
 	 */
-	public CharsetMatch[] getDetectedEncodings() {
+	public DetectedEncodings getDetectedEncodings() {
 		return current_handler.getDetectedEncodings();
 	}
 	
+	/**
+	 * Get the detection result of the active document, if supported by the editor and the editor input.
+	 * @return the detection result or null.
+	 */
+	public DetectionResult getDetectionResult() {
+		return current_handler.getDetectionResult();
+	}
+	
 	/**
 	 * Get the encoding setting of the active document, if supported by the editor.
 	 * @return the encoding setting or null.
@@ -82,10 +118,10 @@ public class ActiveDocumentAgent implements IPartListener, IPropertyListener {
 	}
 	
 	/**
-	 * Get a handler for an editor.
+	 * Create a handler for an editor.
 	 * @return a specific handler, or DummyHandler if there is no specific handler for an editor.
 	 */
-	private IActiveDocumentAgentHandler getHandler(IEditorPart part) {
+	private IActiveDocumentAgentHandler createHandler(IEditorPart part) {
 		if (part != null) {
 			if (part.getAdapter(IEncodingSupport.class) != null) {
 				if (part instanceof IEditorPart) {
@@ -113,6 +149,21 @@ public class ActiveDocumentAgent implements IPartListener, IPropertyListener {
 		return new DummyHandler(part, callback);
 	}
 	
+	/**
+	 * Get the handler for an editor, the handler created before for the editor is reused.
+	 * @return a specific handler, or DummyHandler if there is no specific handler for an editor.
+	 */
+	private IActiveDocumentAgentHandler getHandler(IEditorPart part) {
+		IActiveDocumentAgentHandler handler = part == null ? null : handlers.get(part);
+		if (handler == null) {
+			handler = createHandler(part);
+			if (part != null) {
+				handlers.put(part, handler);
+			}
+		}
+		return handler;
+	}
+	
 	/**
 	 * Get the name of the active document, if supported by the editor and the editor input.
 	 * @return the name or null.
@@ -121,6 +172,25 @@ public class ActiveDocumentAgent implements IPartListener, IPropertyListener {
 		return current_handler.getName();
 	}
 	
+	/**
+	 * Get the number of characters of the active document which cannot be encoded by an encoding, including the unsaved characters.
+	 * The characters are checked when the document is changed, so that it is known immediately if a typed character cannot be encoded.
+	 * @param encoding The encoding, e.g. the encoding setting or a detected encoding.
+	 * @return the number of characters, or -1 if not supported by the editor or the encoding.
+	 */
+	public int getUnencodableCharacterCount(String encoding) {
+		return current_handler.getUnencodableCharacterCount(encoding);
+	}
+	
+	/**
+	 * Check whether the encoding of the active document is being detected.
+	 * The detected encodings are not available until the detection is done, and the callback will be invoked then.
+	 * @return true/false
+	 */
+	public boolean isDetecting() {
+		return current_handler.isDetecting();
+	}
+	
 	/**
 	 * Check whether the active document is dirty or not.
 	 * @return true/false
@@ -133,7 +203,11 @@ public class ActiveDocumentAgent implements IPartListener, IPropertyListener {
 	public void propertyChanged(Object source, int propId) {
 		if (propId == IEditorPart.PROP_INPUT) {
 			// The current handler may not be able to handle the new editor input, so get a new handler for the active editor, and invoke the callback.
+			IActiveDocumentAgentHandler old_handler = handlers.remove(current_handler.getEditor());
 			setCurrentHandler(getHandler(getActiveEditor()));
+			if (old_handler != null) {
+				old_handler.dispose();
+			}
 			callback.encodingInfoChanged();
 		}
 		else {
@@ -142,6 +216,62 @@ public class ActiveDocumentAgent implements IPartListener, IPropertyListener {
 		}
 	}
 
+	/**
+	 * Pass the changed resources to the handlers, called in the UI thread.
+	 */
+	private void processChangedResources() {
+		Set<IPath> paths;
+		synchronized (changed_paths) {
+			paths = new HashSet<IPath>(changed_paths);
+			changed_paths.clear();
+			is_resource_change_scheduled = false;
+		}
+		
+		if (!is_started) return;
+		for (IActiveDocumentAgentHandler handler: handlers.values()) {
+			handler.resourcesChanged(paths);
+		}
+	}
+
+	@Override
+	public void resourceChanged(IResourceChangeEvent event) {
+		IResourceDelta delta = event.getDelta();
+		if (delta == null) return;
+		
+		// Collect the files whose content or encoding setting is changed, the delta is only valid during the notification.
+		final Set<IPath> paths = new HashSet<IPath>();
+		try {
+			delta.accept(new IResourceDeltaVisitor() {
+				@Override
+				public boolean visit(IResourceDelta delta) throws CoreException {
+					if (delta.getResource().getType() == IResource.FILE && delta.getKind() == IResourceDelta.CHANGED &&
+							(delta.getFlags() & (IResourceDelta.CONTENT | IResourceDelta.ENCODING | IResourceDelta.REPLACED)) != 0) {
+						paths.add(delta.getResource().getFullPath());
+					}
+					return true;
+				}
+			});
+		} catch (CoreException e) {
+			// The visitor does not throw CoreException, the changes collected so far are still passed to the handlers.
+			Activator.log(IStatus.WARNING, "Cannot visit the resource changes.", e);
+		}
+		if (paths.isEmpty()) return;
+		
+		// The notification is not in the UI thread, so pass the changes to the handlers in the UI thread.
+		// The changes are batched until the UI thread processes them, e.g. when many files are changed by a checkout.
+		synchronized (changed_paths) {
+			changed_paths.addAll(paths);
+			if (is_resource_change_scheduled) return;
+			is_resource_change_scheduled = true;
+		}
+		Display.getDefault().asyncExec(new Runnable() {
+			@Override
+			public void run() {
+				processChangedResources();
+			}
+		});
+	}
+
 	@Override
 	public void partActivated(IWorkbenchPart part) {
 		checkActiveEditor();
@@ -154,7 +284,12 @@ public class ActiveDocumentAgent implements IPartListener, IPropertyListener {
 
 	@Override
 	public void partClosed(IWorkbenchPart part) {
+		IActiveDocumentAgentHandler handler = handlers.remove(part);
 		checkActiveEditor();
+		// Dispose the handler after it is no longer the current handler.
+		if (handler != null) {
+			handler.dispose();
+		}
 	}
 
 	@Override
@@ -165,6 +300,11 @@ public class ActiveDocumentAgent implements IPartListener, IPropertyListener {
 	@Override
 	public void partOpened(IWorkbenchPart part) {
 		checkActiveEditor();
+		
+		// Prefetch the encoding information of the editor opened in background, e.g. when opening several files at once.
+		if (part instanceof IEditorPart && part != current_handler.getEditor()) {
+			getHandler((IEditorPart) part).prefetch();
+		}
 	}
 
 	/**
@@ -181,7 +321,7 @@ public class ActiveDocumentAgent implements IPartListener, IPropertyListener {
 
 	/**
 	 * Change the current handler.
-	 * This method helps to add/remove IPropertyListener as needed.
+	 * This method helps to add/remove IPropertyListener as needed, and activates/deactivates the handlers.
 	 * @param handler
 	 */
 	private void setCurrentHandler(IActiveDocumentAgentHandler handler) {
@@ -193,6 +333,9 @@ public class ActiveDocumentAgent implements IPartListener, IPropertyListener {
 			if (editor != null) {
 				editor.removePropertyListener(this);
 			}
+			
+			// Cancel the running detection of the old handler.
+			current_handler.deactivate();
 		}
 		
 		current_handler = handler;
@@ -202,6 +345,30 @@ public class ActiveDocumentAgent implements IPartListener, IPropertyListener {
 		if (editor != null) {
 			editor.addPropertyListener(this);
 		}
+		
+		// Update the encoding information of the reused handler.
+		current_handler.activate();
+	}
+	
+	/**
+	 * Reveal a line of the active document, if supported by the editor.
+	 * Like the line where the document cannot be decoded, see DocumentStructure.
+	 * @param line The line, starting from 1.
+	 */
+	public void revealLine(long line) {
+		IEditorPart editor = current_handler.getEditor();
+		if (editor == null || line < 1 || line > Integer.MAX_VALUE) return;
+		
+		ITextEditor text_editor = EncodedDocumentHandler.getTextEditor(editor);
+		IDocumentProvider document_provider = text_editor == null ? null : text_editor.getDocumentProvider();
+		IDocument document = document_provider == null ? null : document_provider.getDocument(editor.getEditorInput());
+		if (document == null) return;
+		
+		try {
+			text_editor.selectAndReveal(document.getLineOffset((int) line - 1), 0);
+		} catch (BadLocationException e) {
+			// The document is changed after it is checked.
+		}
 	}
 	
 	/**
@@ -227,6 +394,8 @@ public class ActiveDocumentAgent implements IPartListener, IPropertyListener {
 				
 				// Add listeners.
 				window.getPartService().addPartListener(this);
+				// Only the changes after the resources are changed matter.
+				ResourcesPlugin.getWorkspace().addResourceChangeListener(this, IResourceChangeEvent.POST_CHANGE);
 			}
 		}
 	}
@@ -238,10 +407,17 @@ public class ActiveDocumentAgent implements IPartListener, IPropertyListener {
 		if (is_started) {
 			// Remove listeners.
 			window.getPartService().removePartListener(this);
+			ResourcesPlugin.getWorkspace().removeResourceChangeListener(this);
 			
 			// Reset the current handler to a dummy handler, which will remove IPropertyListener if added.
 			setCurrentHandler(getHandler(null));
 			
+			// Dispose the handlers of the editors.
+			for (IActiveDocumentAgentHandler handler: handlers.values()) {
+				handler.dispose();
+			}
+			handlers.clear();
+			
 			window = null;
 			is_started = false;
 		}
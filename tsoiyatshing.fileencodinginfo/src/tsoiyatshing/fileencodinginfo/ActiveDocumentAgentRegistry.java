@@ -0,0 +1,87 @@
+package tsoiyatshing.fileencodinginfo;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.eclipse.ui.IWorkbenchWindow;
+
+/**
+ * Share an ActiveDocumentAgent among the contributions of the same workbench window.
+ * The contribution is recreated on every update, and may be shown more than once in a window, so the agent is not owned by the contribution.
+ * The agent is started when the first contribution acquires it, and stopped when the last contribution releases it.
+ * @author Tsoi Yat Shing
+ *
+ */
+class ActiveDocumentAgentRegistry {
+	// The shared agents, keyed by the workbench window.
+	private final Map<IWorkbenchWindow, SharedAgent> agents = new HashMap<IWorkbenchWindow, SharedAgent>();
+
+	/**
+	 * Get the agent of a window, and subscribe to its changes.
+	 * @param window The workbench window.
+	 * @param callback Invoked when the encoding information of the active document of the window is changed.
+	 * @return the started agent.
+	 */
+	public synchronized ActiveDocumentAgent acquire(IWorkbenchWindow window, IActiveDocumentAgentCallback callback) {
+		if (window == null) throw new IllegalArgumentException("window must not be null.");
+		if (callback == null) throw new IllegalArgumentException("callback must not be null.");
+
+		SharedAgent shared_agent = agents.get(window);
+		if (shared_agent == null) {
+			shared_agent = new SharedAgent();
+			agents.put(window, shared_agent);
+			shared_agent.agent.start(window);
+		}
+		if (!shared_agent.callbacks.contains(callback)) {
+			shared_agent.callbacks.add(callback);
+		}
+		return shared_agent.agent;
+	}
+
+	/**
+	 * Stop all the agents, e.g. when the plug-in is stopped.
+	 */
+	public synchronized void dispose() {
+		for (SharedAgent shared_agent: agents.values()) {
+			shared_agent.callbacks.clear();
+			shared_agent.agent.stop();
+		}
+		agents.clear();
+	}
+
+	/**
+	 * Unsubscribe from the agent of a window, the agent is stopped if there are no more subscribers.
+	 * @param window The workbench window passed to acquire().
+	 * @param callback The callback passed to acquire().
+	 */
+	public synchronized void release(IWorkbenchWindow window, IActiveDocumentAgentCallback callback) {
+		SharedAgent shared_agent = agents.get(window);
+		if (shared_agent == null) return;
+
+		shared_agent.callbacks.remove(callback);
+		if (shared_agent.callbacks.isEmpty()) {
+			agents.remove(window);
+			shared_agent.agent.stop();
+		}
+	}
+
+	/**
+	 * An agent with the callbacks of its subscribers.
+	 */
+	private static class SharedAgent implements IActiveDocumentAgentCallback {
+		// The callbacks may be invoked in a background thread while a contribution is being disposed.
+		final List<IActiveDocumentAgentCallback> callbacks = new CopyOnWriteArrayList<IActiveDocumentAgentCallback>();
+
+		// The agent of the window, which invokes this object as its callback.
+		final ActiveDocumentAgent agent = new ActiveDocumentAgent(this);
+
+		@Override
+		public void encodingInfoChanged() {
+			for (IActiveDocumentAgentCallback callback: callbacks) {
+				callback.encodingInfoChanged();
+			}
+		}
+	}
+}
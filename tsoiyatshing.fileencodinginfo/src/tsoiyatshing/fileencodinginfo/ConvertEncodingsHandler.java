@@ -0,0 +1,71 @@
+package tsoiyatshing.fileencodinginfo;
+
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.eclipse.core.commands.AbstractHandler;
+import org.eclipse.core.commands.ExecutionEvent;
+import org.eclipse.core.commands.ExecutionException;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
+import org.eclipse.core.runtime.jobs.JobChangeAdapter;
+import org.eclipse.jface.dialogs.IInputValidator;
+import org.eclipse.jface.dialogs.InputDialog;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.jface.window.Window;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.ui.IWorkbenchWindow;
+import org.eclipse.ui.handlers.HandlerUtil;
+
+/**
+ * Convert the text files in the selected resources to an encoding, which is asked for.
+ * Unlike ScanEncodingsHandler, the whole workspace is not converted if no resource is selected.
+ * The conversion is run as a job (see EncodingConvertJob), the numbers of the files are shown when it is done.
+ * @author Tsoi Yat Shing
+ *
+ */
+public class ConvertEncodingsHandler extends AbstractHandler {
+	// The title of the dialogs.
+	private static final String TITLE = "Convert Encodings";
+
+	// The encoding suggested.
+	private static final String DEFAULT_ENCODING = "UTF-8";
+
+	@Override
+	public Object execute(ExecutionEvent event) throws ExecutionException {
+		final IWorkbenchWindow window = HandlerUtil.getActiveWorkbenchWindowChecked(event);
+		List<IResource> resources = ScanEncodingsHandler.getSelectedResources(HandlerUtil.getCurrentSelection(event));
+		if (resources.isEmpty()) return null;
+
+		InputDialog dialog = new InputDialog(window.getShell(), TITLE, "Convert the selected files to:", DEFAULT_ENCODING, new IInputValidator() {
+			@Override
+			public String isValid(String text) {
+				Charset charset = EncodingUtil.getCharset(text.trim());
+				if (charset == null) return "Encoding is not supported.";
+				if (!charset.canEncode()) return "Encoding cannot be converted to.";
+				return null;
+			}
+		});
+		if (dialog.open() != Window.OK) return null;
+
+		final EncodingConvertJob job = new EncodingConvertJob(resources.toArray(new IResource[resources.size()]), EncodingUtil.getCharset(dialog.getValue().trim()).name());
+		job.addJobChangeListener(new JobChangeAdapter() {
+			@Override
+			public void done(IJobChangeEvent event) {
+				int severity = event.getResult().getSeverity();
+				if (severity != IStatus.OK && severity != IStatus.CANCEL) return;
+
+				Display.getDefault().asyncExec(new Runnable() {
+					@Override
+					public void run() {
+						if (window.getShell() == null) return;
+						MessageDialog.openInformation(window.getShell(), TITLE, String.format("%d files converted to %s, %d files skipped, %d files cannot be converted (see the Error Log).", job.getConvertedCount(), job.getTargetEncoding(), job.getSkippedCount(), job.getFailedCount()));
+					}
+				});
+			}
+		});
+		job.schedule();
+		return null;
+	}
+}
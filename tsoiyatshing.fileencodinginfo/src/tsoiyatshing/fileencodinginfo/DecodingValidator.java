@@ -0,0 +1,181 @@
+package tsoiyatshing.fileencodinginfo;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+
+/**
+ * Check whether some data can be decoded by an encoding, the data can be provided chunk by chunk.
+ * The decoded characters are discarded, so that the memory used does not depend on the size of the data.
+ * UTF-8 and US-ASCII data is validated by Utf8Validator instead of the decoder, without decoding the characters.
+ * @author Tsoi Yat Shing
+ *
+ */
+class DecodingValidator {
+	// The size of the buffers.
+	static final int BUFFER_SIZE = 4096;
+
+	// The decoder, or null if the data is validated by Utf8Validator.
+	private CharsetDecoder decoder;
+
+	// Indicate whether the encoding is US-ASCII, otherwise UTF-8 if the decoder is null.
+	private boolean is_ascii = false;
+
+	// Hold the input data, including the bytes of an incomplete character left from the last chunk.
+	private ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+
+	// Hold the decoded characters, which are discarded, or null if the decoder is not used.
+	private CharBuffer out;
+
+	// Indicate whether the data cannot be decoded.
+	private boolean is_failed = false;
+
+	// The number of bytes decoded so far, for locating the error.
+	private long decoded_length = 0;
+
+	// The offset of the first byte which cannot be decoded, or -1.
+	private long error_offset = -1;
+
+	/**
+	 * @param encoding The encoding to check.
+	 * @throws IllegalArgumentException if the encoding is not supported.
+	 */
+	public DecodingValidator(String encoding) {
+		Charset charset = EncodingUtil.getCharset(encoding);
+		if (charset == null) throw new IllegalArgumentException("Encoding is not supported: " + encoding);
+		if (charset.name().equals("US-ASCII")) {
+			is_ascii = true;
+		}
+		else if (!charset.name().equals("UTF-8")) {
+			// Report malformed input and unmappable character by default.
+			decoder = charset.newDecoder();
+			out = CharBuffer.allocate(BUFFER_SIZE);
+		}
+	}
+
+	/**
+	 * Decode some data, the decoded characters are discarded.
+	 * @param data The data, the bytes of an incomplete character are not consumed.
+	 * @return false if the data cannot be decoded.
+	 */
+	private boolean decode(ByteBuffer data, boolean end_of_input) {
+		if (decoder == null) return validate(data, end_of_input);
+		
+		int start = data.position();
+		for (;;) {
+			CoderResult result = decoder.decode(data, out, end_of_input);
+			if (result.isError()) {
+				// The position of the data is at the start of the malformed input.
+				error_offset = decoded_length + data.position() - start;
+				is_failed = true;
+				return false;
+			}
+			if (!result.isOverflow()) break;
+			// Discard the decoded characters.
+			out.clear();
+		}
+		decoded_length += data.position() - start;
+		if (end_of_input) {
+			while (decoder.flush(out).isOverflow()) {
+				out.clear();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Decode the data in the input buffer.
+	 * @return false if the data cannot be decoded.
+	 */
+	private boolean decodeInputBuffer(boolean end_of_input) {
+		in.flip();
+		try {
+			return decode(in, end_of_input);
+		} finally {
+			in.compact();
+		}
+	}
+
+	/**
+	 * Provide the last chunk of the data.
+	 * @return true if the whole data can be decoded.
+	 */
+	public boolean finish() {
+		if (is_failed) return false;
+		return decodeInputBuffer(true);
+	}
+
+	/**
+	 * Get the offset of the first byte which cannot be decoded, relative to the start of the data.
+	 * @return the offset, or -1 if the data provided so far can be decoded.
+	 */
+	public long getErrorOffset() {
+		return error_offset;
+	}
+
+	/**
+	 * Check whether the data provided so far cannot be decoded.
+	 * @return true if the data cannot be decoded, no more data is needed.
+	 */
+	public boolean isFailed() {
+		return is_failed;
+	}
+
+	/**
+	 * Provide a chunk of the data.
+	 * @return false if the data cannot be decoded, no more data is needed.
+	 */
+	public boolean update(byte[] data, int offset, int length) {
+		while (length > 0 && !is_failed) {
+			int n = Math.min(length, in.remaining());
+			in.put(data, offset, n);
+			offset += n;
+			length -= n;
+			decodeInputBuffer(false);
+		}
+		return !is_failed;
+	}
+
+	/**
+	 * Validate some UTF-8 or US-ASCII data by Utf8Validator, like decode().
+	 * @param data The data, the bytes of an incomplete character are not consumed.
+	 * @return false if the data cannot be decoded.
+	 */
+	private boolean validate(ByteBuffer data, boolean end_of_input) {
+		int start = data.position();
+		int limit = data.limit();
+		int index = is_ascii ? Utf8Validator.validateAscii(data, start, limit) : Utf8Validator.validateUtf8(data, start, limit);
+		data.position(index);
+		if (index < limit && (is_ascii || end_of_input || !Utf8Validator.isIncomplete(data, index, limit))) {
+			error_offset = decoded_length + index - start;
+			is_failed = true;
+			return false;
+		}
+		decoded_length += index - start;
+		return true;
+	}
+
+	/**
+	 * Provide a chunk of the data.
+	 * The data is decoded directly, without copying to the input buffer, so it is suitable for a large (e.g. memory-mapped) buffer.
+	 * @param data The data, will be consumed.
+	 * @return false if the data cannot be decoded, no more data is needed.
+	 */
+	public boolean update(ByteBuffer data) {
+		// Complete the incomplete character left from the last chunk first.
+		while (in.position() > 0 && data.hasRemaining() && !is_failed) {
+			in.put(data.get());
+			decodeInputBuffer(false);
+		}
+		
+		if (data.hasRemaining() && !is_failed) {
+			if (decode(data, false)) {
+				// Keep the bytes of an incomplete character for the next chunk.
+				in.put(data);
+			}
+		}
+		return !is_failed;
+	}
+}
@@ -0,0 +1,584 @@
+package tsoiyatshing.fileencodinginfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+import org.eclipse.core.filesystem.EFS;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.ui.IEditorPart;
+
+/**
+ * This handler handles editors whose document content can be read for detecting the encoding.
+ * The detection is run in background, the callback will be invoked when the detection is done.
+ * @author Tsoi Yat Shing
+ *
+ */
+abstract class DetectableDocumentHandler extends EncodedDocumentHandler {
+
+	// The result of the last detection, or null.
+	private volatile DetectionResult result;
+
+	// Indicate whether the detection is running.
+	private volatile boolean is_detecting = false;
+
+	// The running detection, for cancelling it.
+	private Future<?> detection;
+
+	// The progress monitor of the running detection, cancelled to abort reading the document.
+	private DetectionMonitor detection_monitor;
+
+	// The task timing out the running detection, or null if the detection has no timeout.
+	private Future<?> detection_timeout;
+
+	// Increased for each detection, so that the result of an outdated detection can be discarded.
+	private int detection_count = 0;
+
+	// Indicate whether the running detection is a prefetch, which is adopted if the handler is activated before it is done.
+	private boolean is_prefetching = false;
+
+	// The encoding setting of the running prefetch.
+	private String prefetch_encoding;
+
+	// Indicate whether the whole document should be checked after the adopted prefetch, which does not check it by itself.
+	private boolean is_full_verify_pending = false;
+
+	// Indicate whether the handler is activated, the callback is only invoked for the activated handler.
+	private volatile boolean is_active = false;
+
+	// The cache key of the document when the result is obtained, for checking whether the document is changed.
+	private volatile String result_cache_key;
+
+	public DetectableDocumentHandler(IEditorPart part, IActiveDocumentAgentCallback callback) {
+		super(part, callback);
+	}
+
+	/**
+	 * Cancel the running detection, if any.
+	 * The result of the cancelled detection will be discarded.
+	 */
+	private synchronized void cancelDetection() {
+		detection_count++;
+		is_detecting = false;
+
+		if (detection_monitor != null) {
+			// Abort reading the document, which may not respond to the interruption.
+			detection_monitor.setCanceled(true);
+		}
+		DetectionExecutor executor = Activator.getDefault() == null ? null : Activator.getDefault().getDetectionExecutor();
+		if (executor != null) {
+			executor.cancel(detection);
+			executor.cancel(detection_timeout);
+		}
+		detection = null;
+		detection_monitor = null;
+		detection_timeout = null;
+		is_prefetching = false;
+		is_full_verify_pending = false;
+	}
+
+	/**
+	 * Create the progress monitor for a detection to be submitted, which replaces the monitor of the outdated detection.
+	 */
+	private synchronized DetectionMonitor createDetectionMonitor() {
+		detection_monitor = new DetectionMonitor();
+		return detection_monitor;
+	}
+
+	/**
+	 * Detect the encoding of the document, run in a worker thread.
+	 * @param detection_id The detection_count when the detection is started.
+	 * @param monitor The progress monitor, cancelled when the detection is cancelled or timed out.
+	 * @param encoding The encoding setting when the detection is started.
+	 * @param sample_size The maximum number of bytes to check, or 0 to check the whole document.
+	 * @param is_full_verify_enabled Whether to check the whole document later if only a sample is checked.
+	 * @param is_recheck Whether the detection is for checking whether the document is changed, if so, the document is not read if the cache key is not changed.
+	 */
+	private void detect(int detection_id, DetectionMonitor monitor, String encoding, long sample_size, boolean is_full_verify_enabled, boolean is_recheck) {
+		DetectionResult result = null;
+		String cache_key = null;
+		long start_time = System.nanoTime();
+
+		// Reading a remote document is bounded by a timeout and a byte budget.
+		long timeout = getTimeout();
+		if (timeout > 0) {
+			if (!startTimeout(detection_id, encoding, timeout)) return;
+			
+			long remote_sample_size = getRemoteSampleSize();
+			if (remote_sample_size > 0 && (sample_size == 0 || sample_size > remote_sample_size)) {
+				// Checking the whole document is too slow.
+				sample_size = remote_sample_size;
+				is_full_verify_enabled = false;
+			}
+		}
+
+		try {
+			cache_key = getCacheKey(monitor);
+			// A document which cannot be changed is not read again without a cache key, unless reading it timed out.
+			DetectionResult checked_result = this.result;
+			boolean is_unchanged = cache_key != null ? cache_key.equals(result_cache_key) : !isDocumentChangeable() && checked_result != null && checked_result.isChecked();
+			if (is_recheck && is_unchanged) {
+				// The document is not changed, but the full verification may have been cancelled.
+				stopTimeout(detection_id);
+				if (checked_result != null && checked_result.isSampled() && is_full_verify_enabled) {
+					startFullVerification(detection_id, encoding);
+				}
+				return;
+			}
+
+			// Use the cached result if the document is not changed.
+			DetectionCache cache = Activator.getDefault() == null ? null : Activator.getDefault().getDetectionCache();
+			if (cache_key != null && cache != null) {
+				result = cache.get(cache_key, encoding);
+				if (result != null && result.isSampled() && sample_size == 0) {
+					// The whole document should be checked.
+					result = null;
+				}
+				DetectionStatistics.getDefault().recordCacheLookup(getName(), result != null);
+			}
+
+			// Wait for the same detection run by another handler, e.g. the document is opened in several windows.
+			String detection_key = cache == null ? null : DetectionCache.getDetectionKey(cache_key, encoding, sample_size);
+			DetectionCache.PendingDetection pending_detection = null;
+			if (result == null && detection_key != null) {
+				pending_detection = cache.startDetection(detection_key);
+				if (pending_detection != null) {
+					result = pending_detection.await();
+					DetectionStatistics.getDefault().recordJoinedDetection(getName(), result != null);
+				}
+			}
+
+			if (result == null) {
+				try {
+					// Use the local file directly if possible, which is faster than using the stream.
+					File local_file = getLocalFile(monitor);
+					if (local_file != null) {
+						result = EncodingUtil.detect(local_file, encoding, sample_size, monitor);
+					}
+					else {
+						result = EncodingUtil.detect(monitor.watch(getContents(monitor)), encoding, sample_size, monitor);
+					}
+					DetectionStatistics.getDefault().recordDetection(getName(), result, System.nanoTime() - start_time);
+					// The result of an aborted reading is incomplete.
+					if (monitor.isCanceled()) {
+						result = null;
+						return;
+					}
+
+					if (cache_key != null && cache != null) {
+						cache.put(cache_key, result);
+					}
+				}
+				finally {
+					// Resume the handlers waiting for this detection, they run the detection themselves if it fails.
+					if (detection_key != null && pending_detection == null) {
+						cache.finishDetection(detection_key, result);
+					}
+				}
+			}
+		} catch (CoreException e) {
+			// The file store may throw CoreException after the detection is cancelled.
+			if (monitor.isCanceled()) return;
+			// The document is shown as not detected.
+			Activator.log(IStatus.WARNING, "Cannot read the document for detecting its encoding.", e);
+		} catch (IOException e) {
+			// Reading the document fails if its stream is closed by the cancelled monitor.
+			if (monitor.isCanceled()) return;
+			Activator.log(IStatus.WARNING, "Cannot read the document for detecting its encoding.", e);
+		} catch (OperationCanceledException e) {
+			// The detection is cancelled or timed out, and its result will be discarded.
+			return;
+		} catch (InterruptedException e) {
+			// The detection is cancelled while waiting for the same detection run by another handler.
+			return;
+		}
+
+		// Store the result, if the detection is not outdated.
+		boolean is_changed;
+		synchronized (this) {
+			if (detection_id != detection_count) return;
+
+			is_changed = is_detecting || (this.result == null ? result != null : !this.result.equals(result));
+			this.result = result;
+			result_cache_key = cache_key;
+			is_detecting = false;
+			detection = null;
+			detection_monitor = null;
+			is_prefetching = false;
+			if (is_full_verify_pending) {
+				is_full_verify_enabled = true;
+				is_full_verify_pending = false;
+			}
+			stopTimeout(detection_id);
+		}
+
+		if (is_changed && is_active) {
+			// Invoke the callback as the encoding information is changed.
+			getCallback().encodingInfoChanged();
+		}
+
+		if (result != null && result.isSampled() && is_full_verify_enabled) {
+			startFullVerification(detection_id, encoding);
+		}
+	}
+
+	@Override
+	public void activate() {
+		is_active = true;
+		super.activate();
+	}
+
+	@Override
+	public void deactivate() {
+		is_active = false;
+		// The result is kept, a cancelled detection will be started again when activated.
+		cancelDetection();
+		super.deactivate();
+	}
+
+	@Override
+	public void dispose() {
+		cancelDetection();
+		super.dispose();
+	}
+
+	/**
+	 * Get the key for caching the detection result of the document, see DetectionCache.getKey().
+	 * The key should change when the document is changed.
+	 * Called in a worker thread.
+	 * @param monitor The progress monitor, cancelled when the detection is cancelled or timed out.
+	 * @return the key, or null if the detection result should not be cached.
+	 */
+	protected String getCacheKey(IProgressMonitor monitor) throws CoreException {
+		return null;
+	}
+
+	/**
+	 * Get the content of the document for detection.
+	 * Called in a worker thread.
+	 * @param monitor The progress monitor, cancelled when the detection is cancelled or timed out.
+	 * @return the content, or null if the content is not available.
+	 */
+	protected abstract InputStream getContents(IProgressMonitor monitor) throws CoreException;
+
+	/**
+	 * Get the local file of the document for detection, if the document is a file in the local file system.
+	 * Called in a worker thread.
+	 * @param monitor The progress monitor, cancelled when the detection is cancelled or timed out.
+	 * @return the local file, or null if getContents() should be used instead.
+	 */
+	protected File getLocalFile(IProgressMonitor monitor) throws CoreException {
+		return null;
+	}
+
+	/**
+	 * Get the URI scheme of the file store of the document, for choosing the timeout of reading the document.
+	 * @return the scheme, or null if the document is not read from a file store.
+	 */
+	protected String getFileStoreScheme() {
+		return null;
+	}
+
+	/**
+	 * Get the full path of the workspace resource of the document, for checking whether the document is changed by resourcesChanged().
+	 * @return the full path, or null if the document is not a workspace resource.
+	 */
+	protected IPath getResourcePath() {
+		return null;
+	}
+
+	@Override
+	public DetectedEncodings getDetectedEncodings() {
+		DetectionResult result = this.result;
+		return result == null ? null : result.getDetectedEncodings();
+	}
+
+	@Override
+	public DetectionResult getDetectionResult() {
+		return result;
+	}
+
+	@Override
+	public int getEncodingConfidence() {
+		DetectionResult result = this.result;
+		return result == null ? 0 : result.getEncodingConfidence();
+	}
+
+	/**
+	 * Get the maximum number of bytes to check for a document read with a timeout, according to the preference.
+	 * @return the sample size, or 0 to check the whole document.
+	 */
+	private static long getRemoteSampleSize() {
+		Activator plugin = Activator.getDefault();
+		return plugin == null ? 0 : Math.max(0, plugin.getPreferenceStore().getInt(PreferenceConstants.REMOTE_SAMPLE_SIZE));
+	}
+
+	/**
+	 * Get the maximum number of bytes to check, according to the preference.
+	 * @return the sample size, or 0 to check the whole document.
+	 */
+	private static long getSampleSize() {
+		return Math.max(0, Activator.getDefault().getPreferenceStore().getInt(PreferenceConstants.SAMPLE_SIZE));
+	}
+
+	/**
+	 * Get the timeout for reading the document, according to the scheme of its file store and the preference.
+	 * The documents in the local file system have no timeout, unless the scheme is listed explicitly.
+	 * @return the timeout in milliseconds, or 0 if there is no timeout.
+	 */
+	private long getTimeout() {
+		String scheme = getFileStoreScheme();
+		Activator plugin = Activator.getDefault();
+		if (scheme == null || plugin == null) return 0;
+		
+		long default_timeout = 0;
+		for (String pair: plugin.getPreferenceStore().getString(PreferenceConstants.REMOTE_TIMEOUTS).split(",")) {
+			int index = pair.indexOf('=');
+			if (index < 0) continue;
+			
+			String pair_scheme = pair.substring(0, index).trim();
+			long timeout;
+			try {
+				timeout = Long.parseLong(pair.substring(index + 1).trim());
+			} catch (NumberFormatException e) {
+				// Ignore the invalid pair.
+				continue;
+			}
+			if (pair_scheme.equalsIgnoreCase(scheme)) return Math.max(0, timeout);
+			if (pair_scheme.equals("*")) default_timeout = Math.max(0, timeout);
+		}
+		return scheme.equalsIgnoreCase(EFS.SCHEME_FILE) ? 0 : default_timeout;
+	}
+
+	@Override
+	public boolean isDetecting() {
+		return is_detecting;
+	}
+
+	/**
+	 * Check whether the document may be changed while the handler is used, e.g. a file.
+	 * If not, and the document has no cache key, the document is not read again to check whether it is changed.
+	 * @return true by default.
+	 */
+	protected boolean isDocumentChangeable() {
+		return true;
+	}
+
+	/**
+	 * Check whether to check the whole document after checking a sample, according to the preference.
+	 */
+	private static boolean isFullVerifyEnabled() {
+		return Activator.getDefault().getPreferenceStore().getBoolean(PreferenceConstants.FULL_VERIFY);
+	}
+
+	@Override
+	public synchronized void prefetch() {
+		// Not needed if the encoding information is obtained or being obtained.
+		if (result != null || is_detecting || (detection != null && !detection.isDone())) return;
+
+		DetectionExecutor executor = Activator.getDefault() == null ? null : Activator.getDefault().getDetectionExecutor();
+		if (executor != null) {
+			final String encoding = getEncoding();
+			final long sample_size = getSampleSize();
+			final int detection_id = detection_count;
+			final DetectionMonitor monitor = createDetectionMonitor();
+			// The result is stored in the handler and the cache, without invoking the callback.
+			// The full verification is delayed until the handler is activated.
+			detection = executor.submitPrefetch(new Runnable() {
+				@Override
+				public void run() {
+					detect(detection_id, monitor, encoding, sample_size, false, false);
+				}
+			});
+			is_prefetching = detection != null;
+			prefetch_encoding = encoding;
+		}
+	}
+
+	@Override
+	public void resourcesChanged(Set<IPath> changed_paths) {
+		IPath path = getResourcePath();
+		if (path == null || !changed_paths.contains(path)) return;
+		
+		// An inactive handler checks whether the document is changed when it is activated.
+		if (!is_active) return;
+		
+		boolean was_detecting;
+		synchronized (this) {
+			// The running detection may read the document before it is changed, so restart it.
+			was_detecting = is_detecting;
+			if (detection != null && !detection.isDone()) {
+				cancelDetection();
+			}
+		}
+		
+		// The document is re-detected in background if its cache key is changed, the callback will be invoked if the result is changed.
+		if (updateEncodingInfo() || was_detecting) {
+			getCallback().encodingInfoChanged();
+		}
+	}
+
+	/**
+	 * Check the whole document in background, after a sample of the document is checked.
+	 * The sampled result is shown until the whole document is checked.
+	 * @param detection_id The detection_count when the sample is checked.
+	 * @param encoding The encoding setting when the sample is checked.
+	 */
+	private synchronized void startFullVerification(final int detection_id, final String encoding) {
+		// Not needed if the detection is outdated.
+		if (detection_id != detection_count) return;
+
+		DetectionExecutor executor = Activator.getDefault() == null ? null : Activator.getDefault().getDetectionExecutor();
+		if (executor != null) {
+			final DetectionMonitor monitor = createDetectionMonitor();
+			detection = executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					detect(detection_id, monitor, encoding, 0, false, false);
+				}
+			});
+			is_prefetching = false;
+		}
+	}
+
+	/**
+	 * Start timing out a detection, called in the worker thread when the detection is started.
+	 * @param detection_id The detection_count when the detection is started.
+	 * @param encoding The encoding setting when the detection is started.
+	 * @param timeout The timeout in milliseconds.
+	 * @return false if the detection is outdated.
+	 */
+	private synchronized boolean startTimeout(final int detection_id, final String encoding, long timeout) {
+		if (detection_id != detection_count) return false;
+		
+		DetectionExecutor executor = Activator.getDefault() == null ? null : Activator.getDefault().getDetectionExecutor();
+		if (executor == null) return false;
+		
+		detection_timeout = executor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				timeOut(detection_id, encoding);
+			}
+		}, timeout);
+		return true;
+	}
+
+	/**
+	 * Stop timing out a detection, called in the worker thread when the detection is finished.
+	 * @param detection_id The detection_count when the detection is started.
+	 */
+	private synchronized void stopTimeout(int detection_id) {
+		if (detection_id != detection_count) return;
+		
+		DetectionExecutor executor = Activator.getDefault() == null ? null : Activator.getDefault().getDetectionExecutor();
+		if (executor != null) {
+			executor.cancel(detection_timeout);
+		}
+		detection_timeout = null;
+	}
+
+	/**
+	 * Give up a detection which takes too long, the document is shown as not checked instead.
+	 * The worker thread is released as soon as reading the document is aborted.
+	 * @param detection_id The detection_count when the detection is started.
+	 * @param encoding The encoding setting when the detection is started.
+	 */
+	private void timeOut(int detection_id, String encoding) {
+		synchronized (this) {
+			if (detection_id != detection_count) return;
+			
+			// This task is finishing, so it need not be cancelled.
+			detection_timeout = null;
+			cancelDetection();
+			// The result is not cached, so that the document will be checked again when the handler is activated.
+			result = DetectionResult.createUnchecked(encoding);
+			result_cache_key = null;
+		}
+		
+		DetectionStatistics.getDefault().recordTimeout(getName());
+		if (is_active) {
+			getCallback().encodingInfoChanged();
+		}
+	}
+
+	/**
+	 * Update the encoding information in member variables.
+	 * This method may be overrided, but should be called by the sub-class.
+	 * @return true if the encoding information is updated.
+	 */
+	protected boolean updateEncodingInfo() {
+		return super.updateEncodingInfo() | updateEncodingInfoPrivately();
+	}
+
+	/**
+	 * Update the encoding information in private member variables.
+	 * The detection is run in a worker thread, the callback will be invoked when the detection is done.
+	 * If the encoding setting is not changed, the result is kept until the document is found to be changed.
+	 * @return true if the encoding information is updated.
+	 */
+	private synchronized boolean updateEncodingInfoPrivately() {
+		long start_time = System.nanoTime();
+		try {
+			DetectionExecutor executor = Activator.getDefault() == null ? null : Activator.getDefault().getDetectionExecutor();
+			if (executor == null) {
+				// The plug-in is stopped.
+				cancelDetection();
+				return false;
+			}
+
+			// Get the updated encoding setting.
+			final String encoding = getEncoding();
+		
+			final long sample_size = getSampleSize();
+			final boolean is_full_verify_enabled = isFullVerifyEnabled();
+
+			final boolean is_recheck = result != null && !is_detecting &&
+				(encoding == null ? result.getEncoding() == null : encoding.equals(result.getEncoding()));
+			if (is_recheck) {
+				// A running detection (e.g. the full verification) will provide the updated result.
+				if (detection != null && !detection.isDone()) return false;
+			}
+			else if (is_prefetching && detection != null && !detection.isDone() &&
+				(encoding == null ? prefetch_encoding == null : encoding.equals(prefetch_encoding))) {
+				// Adopt the running prefetch instead of reading the document again, the callback will be invoked when it is done.
+				is_prefetching = false;
+				is_full_verify_pending = is_full_verify_enabled;
+				is_detecting = true;
+				return true;
+			}
+			else {
+				// Cancel the outdated detection.
+				cancelDetection();
+			}
+
+			final int detection_id = detection_count;
+			final DetectionMonitor monitor = createDetectionMonitor();
+			detection = executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					detect(detection_id, monitor, encoding, sample_size, is_full_verify_enabled, is_recheck);
+				}
+			});
+			is_prefetching = false;
+
+			if (is_recheck) {
+				// The callback will be invoked if the document is found to be changed.
+				return false;
+			}
+
+			// The encoding information is changed to detecting.
+			is_detecting = true;
+			return true;
+		}
+		finally {
+			DetectionStatistics.getDefault().recordUpdate(getName(), System.nanoTime() - start_time);
+		}
+	}
+
+}
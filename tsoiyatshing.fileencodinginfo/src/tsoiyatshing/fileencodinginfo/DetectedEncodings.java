@@ -0,0 +1,124 @@
+package tsoiyatshing.fileencodinginfo;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import com.ibm.icu.text.CharsetMatch;
+
+/**
+ * The encodings detected by an IEncodingDetector, with their confidences.
+ * The encoding with the highest confidence should be the first.
+ * The encodings are stored as their canonical names in arrays, so that the objects are small, immutable, and can be shared by threads.
+ * Unlike CharsetMatch, the detected data is not referenced.
+ * @author Tsoi Yat Shing
+ *
+ */
+public final class DetectedEncodings {
+	// The canonical names of the encodings, the charset names not supported by Java are used as is.
+	private final String[] names;
+
+	// The confidences of the encodings, from 0 to 100.
+	private final byte[] confidences;
+
+	/**
+	 * @param names The names of the encodings, should not be empty.
+	 * @param confidences The confidences of the encodings, from 0 to 100, same length as the names.
+	 */
+	public DetectedEncodings(String[] names, int[] confidences) {
+		if (names.length == 0) throw new IllegalArgumentException("names must not be empty.");
+		if (names.length != confidences.length) throw new IllegalArgumentException("The names and the confidences should have the same length.");
+		
+		this.names = new String[names.length];
+		this.confidences = new byte[names.length];
+		for (int i = 0; i < names.length; i++) {
+			if (names[i] == null) throw new IllegalArgumentException("names must not contain null.");
+			if (confidences[i] < 0 || confidences[i] > 100) throw new IllegalArgumentException("confidences must be from 0 to 100.");
+			this.names[i] = getCanonicalName(names[i]);
+			this.confidences[i] = (byte) confidences[i];
+		}
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) return true;
+		if (!(obj instanceof DetectedEncodings)) return false;
+		
+		DetectedEncodings other = (DetectedEncodings) obj;
+		return Arrays.equals(names, other.names) && Arrays.equals(confidences, other.confidences);
+	}
+
+	/**
+	 * Create from the CharsetMatch objects detected by ICU.
+	 * @return the detected encodings, or null if there is no CharsetMatch.
+	 */
+	static DetectedEncodings fromCharsetMatches(CharsetMatch[] charset_matches) {
+		if (charset_matches == null || charset_matches.length == 0) return null;
+		
+		String[] names = new String[charset_matches.length];
+		int[] confidences = new int[charset_matches.length];
+		for (int i = 0; i < charset_matches.length; i++) {
+			names[i] = charset_matches[i].getName();
+			confidences[i] = charset_matches[i].getConfidence();
+		}
+		return new DetectedEncodings(names, confidences);
+	}
+
+	/**
+	 * Get the canonical name of a charset, so that the aliases of a charset are matched.
+	 */
+	private static String getCanonicalName(String name) {
+		Charset charset = EncodingUtil.getCharset(name);
+		return charset == null ? name : charset.name();
+	}
+
+	/**
+	 * Get the confidence of an encoding.
+	 * @param index From 0 to size() - 1.
+	 */
+	public int getConfidence(int index) {
+		return confidences[index];
+	}
+
+	/**
+	 * Get the confidence of a charset, the aliases of the charset are also matched.
+	 * @return the confidence, or 0 if the charset is not detected.
+	 */
+	public int getConfidence(String charset) {
+		int index = indexOf(charset);
+		return index < 0 ? 0 : confidences[index];
+	}
+
+	/**
+	 * Get the canonical name of an encoding, i.e. the name used by Java if the encoding is supported.
+	 * @param index From 0 to size() - 1.
+	 */
+	public String getName(int index) {
+		return names[index];
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(names) * 31 + Arrays.hashCode(confidences);
+	}
+
+	/**
+	 * Find a charset in the detected encodings, the aliases of the charset are also matched.
+	 * @return the index, or -1 if the charset is not detected.
+	 */
+	public int indexOf(String charset) {
+		if (charset == null) return -1;
+		
+		String canonical_name = getCanonicalName(charset);
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equals(canonical_name)) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Get the number of encodings.
+	 */
+	public int size() {
+		return names.length;
+	}
+}
@@ -0,0 +1,243 @@
+package tsoiyatshing.fileencodinginfo;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Cache the detection results, so that an unchanged document does not need to be detected again.
+ * The key should identify both the document and its version, e.g. the URI plus the modification stamp.
+ * The least recently used results are evicted when the cache is full.
+ * The cache may be backed by a DetectionIndex, so that the results are kept after restarting the workbench.
+ * @author Tsoi Yat Shing
+ *
+ */
+class DetectionCache {
+	// The maximum number of cached results.
+	private static final int MAX_ENTRIES = 256;
+
+	// The cached results, the least recently used first, a result is moved to the end when used, see get() and put().
+	private final Map<String, DetectionResult> results = new LinkedHashMap<String, DetectionResult>() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, DetectionResult> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	// The persistent index, or null.
+	private final DetectionIndex index;
+
+	// The detections being run, keyed by getDetectionKey(), so that a document opened in several windows is read once.
+	private final ConcurrentMap<String, PendingDetection> pending_detections = new ConcurrentHashMap<String, PendingDetection>();
+
+	// The number of lookups which found a result.
+	private long hit_count = 0;
+
+	// The number of lookups which did not find a result.
+	private long miss_count = 0;
+
+	/**
+	 * @param index The persistent index backing the cache, or null.
+	 */
+	public DetectionCache(DetectionIndex index) {
+		this.index = index;
+	}
+
+	/**
+	 * Get the identity of the document from a cache key, i.e. without the modification stamp and the length.
+	 * @param key The key returned by getKey().
+	 */
+	static String getIdentity(String key) {
+		// The identity may contain the separator, so search from the end.
+		int index = key.lastIndexOf('|', key.lastIndexOf('|') - 1);
+		return index < 0 ? key : key.substring(0, index);
+	}
+
+	/**
+	 * Build a cache key.
+	 * @param identity Identify the document, like the URI of the file.
+	 * @param modification_stamp The modification stamp or the local time stamp of the document.
+	 * @param length The length of the document, or -1 if not known.
+	 * @return the key, or null if the document cannot be identified.
+	 */
+	public static String getKey(Object identity, long modification_stamp, long length) {
+		if (identity == null) return null;
+		return identity + "|" + modification_stamp + "|" + length;
+	}
+
+	/**
+	 * Remove all the cached results.
+	 */
+	public synchronized void clear() {
+		results.clear();
+	}
+
+	/**
+	 * Get a cached result.
+	 * @param key The key returned by getKey().
+	 * @param encoding The encoding setting, the cached result is not used if it is detected for a different encoding setting.
+	 * @return the cached result, or null if not found.
+	 */
+	public DetectionResult get(String key, String encoding) {
+		if (key == null) return null;
+		
+		DetectionResult result;
+		synchronized (this) {
+			result = results.remove(key);
+			if (result != null) {
+				results.put(key, result);
+			}
+		}
+		if (result == null && index != null) {
+			// Not locking the cache when loading the index.
+			result = index.get(key);
+			if (result != null) {
+				synchronized (this) {
+					results.put(key, result);
+				}
+			}
+		}
+		if (result != null && !isSameEncoding(result.getEncoding(), encoding)) {
+			result = null;
+		}
+		
+		synchronized (this) {
+			if (result != null) {
+				hit_count++;
+			}
+			else {
+				miss_count++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Finish a detection registered by startDetection(), the threads waiting for it are resumed.
+	 * Should be called even if the detection fails or is cancelled.
+	 * @param detection_key The key returned by getDetectionKey().
+	 * @param result The result, or null if the detection fails, then the waiting threads run the detection themselves.
+	 */
+	public void finishDetection(String detection_key, DetectionResult result) {
+		PendingDetection pending_detection = pending_detections.remove(detection_key);
+		if (pending_detection != null) {
+			pending_detection.finish(result);
+		}
+	}
+
+	/**
+	 * Build the key of a detection, the same detection gives the same result.
+	 * @param key The key returned by getKey().
+	 * @param encoding The encoding setting.
+	 * @param sample_size The maximum number of bytes to check, or 0 to check the whole document.
+	 * @return the key, or null if the key is null.
+	 */
+	public static String getDetectionKey(String key, String encoding, long sample_size) {
+		if (key == null) return null;
+		return key + "|" + encoding + "|" + sample_size;
+	}
+
+	/**
+	 * Get the number of lookups which found a result.
+	 */
+	public synchronized long getHitCount() {
+		return hit_count;
+	}
+
+	/**
+	 * Get the number of lookups which did not find a result.
+	 */
+	public synchronized long getMissCount() {
+		return miss_count;
+	}
+
+	/**
+	 * Check whether two encoding settings are the same, either may be null or not supported.
+	 */
+	private static boolean isSameEncoding(String a, String b) {
+		return a == null ? b == null : (a.equals(b) || EncodingUtil.areCharsetsEqual(a, b));
+	}
+
+	/**
+	 * Get a cached result without using it, i.e. the lookup is not counted, and the result is neither moved in the cache nor loaded from the index into the cache.
+	 * For reading the results of many documents, e.g. scanning the workspace, which should not evict the results of the editors.
+	 * @param key The key returned by getKey().
+	 * @param encoding The encoding setting, the cached result is not used if it is detected for a different encoding setting.
+	 * @return the cached result, or null if not found.
+	 */
+	public DetectionResult peek(String key, String encoding) {
+		if (key == null) return null;
+		
+		DetectionResult result;
+		synchronized (this) {
+			result = results.get(key);
+		}
+		if (result == null && index != null) {
+			result = index.peek(key);
+		}
+		return result != null && isSameEncoding(result.getEncoding(), encoding) ? result : null;
+	}
+
+	/**
+	 * Cache a result.
+	 * @param key The key returned by getKey(), nothing is cached if it is null.
+	 * @param result The result, nothing is cached if it is null.
+	 */
+	public void put(String key, DetectionResult result) {
+		if (key != null && result != null) {
+			synchronized (this) {
+				results.remove(key);
+				results.put(key, result);
+			}
+			if (index != null) {
+				index.put(key, result);
+			}
+		}
+	}
+
+	/**
+	 * Get the number of cached results.
+	 */
+	public synchronized int size() {
+		return results.size();
+	}
+
+	/**
+	 * Register a detection about to be run, unless the same detection is being run by another thread.
+	 * @param detection_key The key returned by getDetectionKey().
+	 * @return null if the detection is registered, the caller should run it and then call finishDetection(); otherwise the running detection to wait for.
+	 */
+	public PendingDetection startDetection(String detection_key) {
+		return pending_detections.putIfAbsent(detection_key, new PendingDetection());
+	}
+
+	/**
+	 * A detection being run by a thread, which other threads can wait for.
+	 */
+	static class PendingDetection {
+		// Released when the detection is finished.
+		private final CountDownLatch latch = new CountDownLatch(1);
+
+		// The result, or null if the detection fails.
+		private volatile DetectionResult result;
+
+		/**
+		 * Wait for the detection to finish.
+		 * @return the result, or null if the detection fails.
+		 * @throws InterruptedException if the waiting thread is interrupted, e.g. its own detection is cancelled.
+		 */
+		public DetectionResult await() throws InterruptedException {
+			latch.await();
+			return result;
+		}
+
+		private void finish(DetectionResult result) {
+			this.result = result;
+			latch.countDown();
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package tsoiyatshing.fileencodinginfo;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Run encoding detection in background threads, so that reading the documents will not block the UI thread.
+ * The number of worker threads is bounded, idle threads will be terminated.
+ * Prefetching for the editors in background is run by separated worker threads, so that it will not delay the detection for the active editor.
+ * @author Tsoi Yat Shing
+ *
+ */
+class DetectionExecutor {
+	// The maximum number of worker threads.
+	private static final int MAX_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+	// Idle worker threads will be terminated after this time.
+	private static final long KEEP_ALIVE_SECONDS = 30;
+
+	private ThreadPoolExecutor executor;
+
+	// Run the prefetching tasks.
+	private ThreadPoolExecutor prefetch_executor;
+
+	// Time out the detections reading slow file stores.
+	private ScheduledThreadPoolExecutor timeout_executor;
+
+	// Check the candidate encodings concurrently for the detections.
+	private ThreadPoolExecutor validation_executor;
+
+	public DetectionExecutor() {
+		executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new WorkerThreadFactory("File Encoding Info Detection"));
+		executor.allowCoreThreadTimeOut(true);
+		
+		// The number of threads is adjusted according to the preference when a task is submitted.
+		prefetch_executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new WorkerThreadFactory("File Encoding Info Prefetch"));
+		prefetch_executor.allowCoreThreadTimeOut(true);
+		
+		// The timeout tasks only cancel the detections, so one thread is enough.
+		timeout_executor = new ScheduledThreadPoolExecutor(1, new WorkerThreadFactory("File Encoding Info Timeout"));
+		timeout_executor.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+		timeout_executor.allowCoreThreadTimeOut(true);
+		
+		// A detection runs the task itself if no thread is available, so that it never waits for other detections.
+		validation_executor = new ThreadPoolExecutor(0, MAX_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), new WorkerThreadFactory("File Encoding Info Validation"), new RunInCallerPolicy());
+	}
+
+	/**
+	 * Get the executor for checking the candidate encodings concurrently, see MultiDecodingValidator.
+	 * @return the executor, which runs a task in the calling thread if no worker thread is available or the executor is shut down.
+	 */
+	public Executor getValidationExecutor() {
+		return validation_executor;
+	}
+
+	/**
+	 * Cancel a detection task submitted before.
+	 * The worker thread running the task will be interrupted.
+	 * @param task The task returned by submit(), may be null.
+	 */
+	public void cancel(Future<?> task) {
+		if (task != null) {
+			task.cancel(true);
+			// Remove the cancelled task from the queue, if it is not started yet.
+			executor.purge();
+			prefetch_executor.purge();
+			timeout_executor.purge();
+		}
+	}
+
+	/**
+	 * Stop the worker threads, pending tasks will be discarded.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+		prefetch_executor.shutdownNow();
+		timeout_executor.shutdownNow();
+		validation_executor.shutdownNow();
+	}
+
+	/**
+	 * Run a task after a timeout, e.g. for cancelling a detection which takes too long.
+	 * @param task The task, which should be short.
+	 * @param timeout The timeout in milliseconds.
+	 * @return a Future for cancelling the task, or null if the executor is shut down.
+	 */
+	public Future<?> schedule(Runnable task, long timeout) {
+		try {
+			return timeout_executor.schedule(task, timeout, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// The executor is shut down.
+			return null;
+		}
+	}
+
+	/**
+	 * Run a detection task in a worker thread.
+	 * @param task The detection task.
+	 * @return a Future for cancelling the task.
+	 */
+	public Future<?> submit(Runnable task) {
+		return executor.submit(task);
+	}
+
+	/**
+	 * Run a prefetching task in a worker thread, after the pending prefetching tasks.
+	 * The queue depth and the number of worker threads are limited by the preferences.
+	 * @param task The prefetching task.
+	 * @return a Future for cancelling the task, or null if the queue is full or prefetching is disabled.
+	 */
+	public Future<?> submitPrefetch(Runnable task) {
+		int queue_depth = 0;
+		int thread_count = 1;
+		if (Activator.getDefault() != null) {
+			queue_depth = Activator.getDefault().getPreferenceStore().getInt(PreferenceConstants.PREFETCH_QUEUE_DEPTH);
+			thread_count = Math.max(1, Activator.getDefault().getPreferenceStore().getInt(PreferenceConstants.PREFETCH_THREADS));
+		}
+		
+		synchronized (prefetch_executor) {
+			if (prefetch_executor.getQueue().size() >= queue_depth) return null;
+			
+			if (prefetch_executor.getMaximumPoolSize() != thread_count) {
+				// The core pool size must not exceed the maximum pool size.
+				if (thread_count > prefetch_executor.getMaximumPoolSize()) {
+					prefetch_executor.setMaximumPoolSize(thread_count);
+					prefetch_executor.setCorePoolSize(thread_count);
+				}
+				else {
+					prefetch_executor.setCorePoolSize(thread_count);
+					prefetch_executor.setMaximumPoolSize(thread_count);
+				}
+			}
+			
+			try {
+				return prefetch_executor.submit(task);
+			} catch (RejectedExecutionException e) {
+				// The executor is shut down.
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Run a rejected task in the calling thread, even if the executor is shut down.
+	 * Unlike ThreadPoolExecutor.CallerRunsPolicy, which discards the task after shutdown, so a detection waiting for the task would never finish.
+	 */
+	private static class RunInCallerPolicy implements RejectedExecutionHandler {
+		@Override
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+			r.run();
+		}
+	}
+
+	/**
+	 * Create daemon threads with lower priority, so that they will not compete with the UI thread.
+	 */
+	private static class WorkerThreadFactory implements ThreadFactory {
+		private final String name;
+		private final AtomicInteger thread_count = new AtomicInteger();
+
+		public WorkerThreadFactory(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, name + "-" + thread_count.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}
+	}
+}
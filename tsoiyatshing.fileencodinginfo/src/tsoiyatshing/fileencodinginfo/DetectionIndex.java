@@ -0,0 +1,377 @@
+package tsoiyatshing.fileencodinginfo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IStatus;
+
+/**
+ * Persist the detection results in a file, so that they survive restarting the workbench.
+ * The file is a log of binary records, each record stores a cache key (see DetectionCache.getKey()) and a result.
+ * The file is loaded lazily when the index is first used, new results are appended to the file.
+ * Only the latest result of each document is kept, superseded records are removed when the file is compacted, i.e. when there are twice as many records as documents.
+ * Only the results with the structure of the document (i.e. those of EncodingUtil.detect()) are stored, so every record has the same fields.
+ * @author Tsoi Yat Shing
+ *
+ */
+class DetectionIndex {
+	// Identify the format of the file.
+	private static final int MAGIC = 0x46454931;
+
+	// The maximum number of documents in the index.
+	private static final int MAX_ENTRIES = 4096;
+
+	// The maximum number of detected encodings stored for each result, the encodings with low confidences are dropped.
+	private static final int MAX_DETECTED_ENCODINGS = 8;
+
+	private static final int FLAG_DECODABLE = 1;
+	private static final int FLAG_SAMPLED = 2;
+	private static final int FLAG_HAS_ENCODING = 4;
+
+	private static final int STRUCTURE_FLAG_COMPLETE = 1;
+	private static final int STRUCTURE_FLAG_REGION_TRUNCATED = 2;
+
+	// The index file.
+	private final File file;
+
+	// The latest cache key and result of each document, keyed by the identity of the document, the least recently used first, see get() and put().
+	private final Map<String, IndexEntry> entries = new LinkedHashMap<String, IndexEntry>() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, IndexEntry> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	// Indicate whether the file is loaded.
+	private boolean is_loaded = false;
+
+	// The number of records in the file, including the superseded records.
+	private int record_count = 0;
+
+	// Append the records to the file, opened when the first record is appended.
+	private DataOutputStream out;
+
+	// Indicate whether the index is closed, the file is not written after closed.
+	private boolean is_closed = false;
+
+	// Indicate whether an I/O error has been logged, so that a problem of the state location is logged once.
+	private boolean is_error_logged = false;
+
+	/**
+	 * @param file The index file, need not exist.
+	 */
+	public DetectionIndex(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Write the index file, and stop writing it.
+	 * The file is compacted if there are too many superseded records.
+	 */
+	public synchronized void close() {
+		if (is_closed) return;
+		is_closed = true;
+		
+		closeOutput();
+		if (is_loaded && isCompactionNeeded()) {
+			compact();
+		}
+	}
+
+	/**
+	 * Close the output stream of the file, if opened.
+	 */
+	private void closeOutput() {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				logError(e);
+			}
+			out = null;
+		}
+	}
+
+	/**
+	 * Rewrite the file with only the latest records, by writing a temporary file and renaming it.
+	 * The output stream of the file should be closed before.
+	 * @return false if the file cannot be rewritten.
+	 */
+	private boolean compact() {
+		File temp_file = new File(file.getPath() + ".tmp");
+		try {
+			DataOutputStream temp_out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp_file)));
+			try {
+				temp_out.writeInt(MAGIC);
+				for (IndexEntry entry: entries.values()) {
+					writeRecord(temp_out, entry.key, entry.result);
+				}
+			}
+			finally {
+				temp_out.close();
+			}
+			// File.renameTo() may not replace an existing file on some platforms.
+			if (!temp_file.renameTo(file) && !(file.delete() && temp_file.renameTo(file))) {
+				throw new IOException("Cannot rename " + temp_file + " to " + file);
+			}
+			record_count = entries.size();
+			return true;
+		} catch (IOException e) {
+			logError(e);
+			temp_file.delete();
+			return false;
+		}
+	}
+
+	/**
+	 * Get the result of a document.
+	 * @param key The cache key of the document, see DetectionCache.getKey().
+	 * @return the result, or null if the document is not in the index or the document is changed.
+	 */
+	public synchronized DetectionResult get(String key) {
+		if (key == null) return null;
+		load();
+		String identity = DetectionCache.getIdentity(key);
+		IndexEntry entry = entries.remove(identity);
+		if (entry == null) return null;
+		// Move the entry to the end, as it is used.
+		entries.put(identity, entry);
+		return entry.key.equals(key) ? entry.result : null;
+	}
+
+	/**
+	 * Get the result of a document without moving it, see DetectionCache.peek().
+	 * @param key The cache key of the document, see DetectionCache.getKey().
+	 * @return the result, or null if the document is not in the index or the document is changed.
+	 */
+	public synchronized DetectionResult peek(String key) {
+		if (key == null) return null;
+		load();
+		IndexEntry entry = entries.get(DetectionCache.getIdentity(key));
+		return entry != null && entry.key.equals(key) ? entry.result : null;
+	}
+
+	/**
+	 * Check whether there are too many superseded records in the file.
+	 */
+	private boolean isCompactionNeeded() {
+		return record_count > entries.size() * 2;
+	}
+
+	/**
+	 * Log an I/O error of the file, if no error has been logged.
+	 */
+	private void logError(IOException e) {
+		if (is_error_logged) return;
+		is_error_logged = true;
+		Activator.log(IStatus.WARNING, "Cannot write the detection index " + file + ".", e);
+	}
+
+	/**
+	 * Load the file if not yet loaded.
+	 * If the file is corrupted, the records before the corrupted record are kept, and the file is rewritten.
+	 */
+	private void load() {
+		if (is_loaded) return;
+		is_loaded = true;
+		
+		if (!file.exists()) return;
+		
+		boolean is_corrupted = false;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if (in.readInt() != MAGIC) throw new IOException("Unknown format: " + file);
+				for (;;) {
+					// Check whether there are more records, an incomplete record is treated as corrupted.
+					in.mark(1);
+					if (in.read() < 0) break;
+					in.reset();
+					
+					String key = in.readUTF();
+					String identity = DetectionCache.getIdentity(key);
+					// The latest record of a document is the most recently used.
+					entries.remove(identity);
+					entries.put(identity, new IndexEntry(key, readResult(in)));
+					record_count++;
+				}
+			}
+			finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// An incomplete record may be written if the workbench is terminated when writing the file.
+			is_corrupted = true;
+		} catch (IllegalArgumentException e) {
+			is_corrupted = true;
+		}
+		
+		if (is_corrupted && !is_closed) {
+			compact();
+		}
+	}
+
+	/**
+	 * Store the result of a document.
+	 * The record is appended to the file immediately, so that it is not lost if the workbench is terminated.
+	 * The file is compacted when there are too many superseded records, so that it does not grow in a long session.
+	 * @param key The cache key of the document, see DetectionCache.getKey().
+	 * @param result The result, which is not stored if it has no structure, e.g. the document is not checked.
+	 */
+	public synchronized void put(String key, DetectionResult result) {
+		if (key == null || result == null || result.getStructure() == null) return;
+		load();
+		
+		IndexEntry entry = entries.get(DetectionCache.getIdentity(key));
+		if (entry != null && entry.key.equals(key) && entry.result.equals(result)) return;
+		
+		entries.remove(DetectionCache.getIdentity(key));
+		entries.put(DetectionCache.getIdentity(key), new IndexEntry(key, result));
+		if (is_closed) return;
+		
+		try {
+			if (out == null) {
+				boolean is_new_file = !file.exists() || file.length() == 0;
+				out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+				if (is_new_file) {
+					out.writeInt(MAGIC);
+				}
+			}
+			writeRecord(out, key, result);
+			out.flush();
+			record_count++;
+			
+			if (isCompactionNeeded()) {
+				closeOutput();
+				if (!compact()) {
+					// Keep the results in memory, instead of growing the file.
+					is_closed = true;
+				}
+			}
+		} catch (FileNotFoundException e) {
+			// The state location is not writable, keep the results in memory.
+			is_closed = true;
+		} catch (IOException e) {
+			// Keep the results in memory.
+			logError(e);
+			closeOutput();
+			is_closed = true;
+		}
+	}
+
+	/**
+	 * Read a result, the key of the record has been read.
+	 */
+	private static DetectionResult readResult(DataInputStream in) throws IOException {
+		int flags = in.readUnsignedByte();
+		String encoding = (flags & FLAG_HAS_ENCODING) != 0 ? in.readUTF() : null;
+		int count = in.readUnsignedByte();
+		String[] names = new String[count];
+		int[] confidences = new int[count];
+		for (int i = 0; i < count; i++) {
+			names[i] = in.readUTF();
+			confidences[i] = in.readUnsignedByte();
+		}
+		long error_offset = in.readLong();
+		long[] candidate_error_offsets = new long[count];
+		for (int i = 0; i < count; i++) {
+			candidate_error_offsets[i] = in.readLong();
+		}
+		DocumentStructure structure = readStructure(in);
+		try {
+			DetectedEncodings detected_encodings = count == 0 ? null : new DetectedEncodings(names, confidences);
+			return new DetectionResult(detected_encodings, encoding, (flags & FLAG_DECODABLE) != 0, (flags & FLAG_SAMPLED) != 0, -1, -1, -1, error_offset, count == 0 ? null : candidate_error_offsets, structure);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid detected encodings.");
+		}
+	}
+
+	/**
+	 * Read the structure of a document, the BOM is stored as an empty string if there is no BOM.
+	 */
+	private static DocumentStructure readStructure(DataInputStream in) throws IOException {
+		String bom = in.readUTF();
+		long lf_count = in.readLong();
+		long crlf_count = in.readLong();
+		long cr_count = in.readLong();
+		long error_line = in.readLong();
+		int flags = in.readUnsignedByte();
+		int count = in.readUnsignedByte();
+		long[] region_offsets = new long[count];
+		long[] region_lines = new long[count];
+		boolean[] region_utf8_flags = new boolean[count];
+		for (int i = 0; i < count; i++) {
+			region_offsets[i] = in.readLong();
+			region_lines[i] = in.readLong();
+			region_utf8_flags[i] = in.readBoolean();
+		}
+		return new DocumentStructure(bom.length() == 0 ? null : bom, lf_count, crlf_count, cr_count, error_line, region_offsets, region_lines, region_utf8_flags, (flags & STRUCTURE_FLAG_REGION_TRUNCATED) != 0, (flags & STRUCTURE_FLAG_COMPLETE) != 0);
+	}
+
+	/**
+	 * Write a record, which contains the key, the flags, the encoding setting, the top detected encodings with their confidences, the error offsets, and the structure.
+	 */
+	private static void writeRecord(DataOutputStream out, String key, DetectionResult result) throws IOException {
+		DetectedEncodings detected_encodings = result.getDetectedEncodings();
+		int count = detected_encodings == null ? 0 : Math.min(detected_encodings.size(), MAX_DETECTED_ENCODINGS);
+		DocumentStructure structure = result.getStructure();
+		
+		out.writeUTF(key);
+		out.writeByte((result.isDecodable() ? FLAG_DECODABLE : 0) | (result.isSampled() ? FLAG_SAMPLED : 0) | (result.getEncoding() != null ? FLAG_HAS_ENCODING : 0));
+		if (result.getEncoding() != null) {
+			out.writeUTF(result.getEncoding());
+		}
+		out.writeByte(count);
+		for (int i = 0; i < count; i++) {
+			out.writeUTF(detected_encodings.getName(i));
+			out.writeByte(detected_encodings.getConfidence(i));
+		}
+		out.writeLong(result.getErrorOffset());
+		for (int i = 0; i < count; i++) {
+			out.writeLong(result.getCandidateErrorOffset(i));
+		}
+		writeStructure(out, structure);
+	}
+
+	/**
+	 * Write the structure of a document, see readStructure().
+	 */
+	private static void writeStructure(DataOutputStream out, DocumentStructure structure) throws IOException {
+		out.writeUTF(structure.getBom() == null ? "" : structure.getBom());
+		out.writeLong(structure.getLfCount());
+		out.writeLong(structure.getCrlfCount());
+		out.writeLong(structure.getCrCount());
+		out.writeLong(structure.getErrorLine());
+		out.writeByte((structure.isComplete() ? STRUCTURE_FLAG_COMPLETE : 0) | (structure.isRegionTruncated() ? STRUCTURE_FLAG_REGION_TRUNCATED : 0));
+		out.writeByte(structure.getRegionCount());
+		for (int i = 0; i < structure.getRegionCount(); i++) {
+			out.writeLong(structure.getRegionOffset(i));
+			out.writeLong(structure.getRegionLine(i));
+			out.writeBoolean(structure.isRegionUtf8(i));
+		}
+	}
+
+	/**
+	 * The latest record of a document.
+	 */
+	private static class IndexEntry {
+		final String key;
+		final DetectionResult result;
+
+		IndexEntry(String key, DetectionResult result) {
+			this.key = key;
+			this.result = result;
+		}
+	}
+}
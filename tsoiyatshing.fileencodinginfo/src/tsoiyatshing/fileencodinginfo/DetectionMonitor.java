@@ -0,0 +1,58 @@
+package tsoiyatshing.fileencodinginfo;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+
+/**
+ * The progress monitor of a detection, cancelled when the detection is cancelled or timed out.
+ * Reading a remote file store may block without checking the monitor, so the stream being read is closed on cancellation to unblock the reading thread.
+ * @author Tsoi Yat Shing
+ *
+ */
+class DetectionMonitor extends NullProgressMonitor {
+	// The stream being read, or null.
+	private InputStream stream;
+
+	/**
+	 * Close the stream being read, if any.
+	 */
+	private void closeStream() {
+		InputStream stream;
+		synchronized (this) {
+			stream = this.stream;
+			this.stream = null;
+		}
+		if (stream != null) {
+			try {
+				stream.close();
+			} catch (IOException e) {
+				// The stream is being abandoned, nothing else can be done.
+			}
+		}
+	}
+
+	@Override
+	public void setCanceled(boolean cancelled) {
+		super.setCanceled(cancelled);
+		if (cancelled) {
+			closeStream();
+		}
+	}
+
+	/**
+	 * Watch a stream being read, so that it is closed when the monitor is cancelled.
+	 * @param stream The stream, may be null.
+	 * @return the stream, which is closed already if the monitor is cancelled.
+	 */
+	InputStream watch(InputStream stream) {
+		synchronized (this) {
+			this.stream = stream;
+		}
+		if (isCanceled()) {
+			closeStream();
+		}
+		return stream;
+	}
+}
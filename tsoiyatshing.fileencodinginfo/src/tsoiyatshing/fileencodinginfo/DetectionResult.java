@@ -0,0 +1,275 @@
+package tsoiyatshing.fileencodinginfo;
+
+import java.util.Arrays;
+
+/**
+ * The result of detecting the encoding of a document, as returned by EncodingUtil.detect().
+ * Include the detected encodings and whether the document can be decoded by the encoding setting, and how the document is checked.
+ * The result is immutable, so that it can be cached and shared by threads.
+ * @author Tsoi Yat Shing
+ *
+ */
+public class DetectionResult {
+	// The error offset meaning that the data can be decoded.
+	public static final long NO_ERROR = -1;
+
+	// The error offset meaning that the data is not checked, e.g. the encoding is not supported.
+	public static final long NOT_CHECKED = -2;
+
+	// The detected encodings, or null.
+	private final DetectedEncodings detected_encodings;
+
+	// The encoding setting checked.
+	private final String encoding;
+
+	// Indicate whether the document can be decoded by the encoding setting.
+	private final boolean is_decodable;
+
+	// Indicate whether only a sample of the document is checked.
+	private final boolean is_sampled;
+
+	// The number of bytes checked for decoding, or -1 if not known.
+	private final long checked_length;
+
+	// The time used for detecting the charsets in nanoseconds, or -1 if not known, e.g. restored from DetectionIndex.
+	private final long detection_time;
+
+	// The time used for checking whether the document can be decoded in nanoseconds, or -1 if not known.
+	private final long validation_time;
+
+	// The offset of the first byte which cannot be decoded by the encoding setting, NO_ERROR or NOT_CHECKED.
+	private final long error_offset;
+
+	// The offsets of the first bytes which cannot be decoded by the detected encodings, or null if not checked.
+	private final long[] candidate_error_offsets;
+
+	// Indicate whether the document is checked, false if reading the document timed out.
+	private final boolean is_checked;
+
+	// The structure of the document found when checking it, or null if not known.
+	private final DocumentStructure structure;
+
+	/**
+	 * Create a result without the checking information, e.g. restored from DetectionIndex.
+	 * @param detected_encodings The detected encodings, or null.
+	 */
+	public DetectionResult(DetectedEncodings detected_encodings, String encoding, boolean is_decodable, boolean is_sampled) {
+		this(detected_encodings, encoding, is_decodable, is_sampled, -1, -1, -1);
+	}
+
+	/**
+	 * @param detected_encodings The detected encodings, or null.
+	 * @param checked_length The number of bytes checked for decoding, or -1 if not known.
+	 * @param detection_time The time used for detecting the charsets in nanoseconds, or -1 if not known.
+	 * @param validation_time The time used for checking whether the document can be decoded in nanoseconds, or -1 if not known.
+	 */
+	public DetectionResult(DetectedEncodings detected_encodings, String encoding, boolean is_decodable, boolean is_sampled, long checked_length, long detection_time, long validation_time) {
+		this(detected_encodings, encoding, is_decodable, is_sampled, checked_length, detection_time, validation_time, is_decodable ? NO_ERROR : NOT_CHECKED, null);
+	}
+
+	/**
+	 * @param detected_encodings The detected encodings, or null.
+	 * @param checked_length The number of bytes checked for decoding, or -1 if not known.
+	 * @param detection_time The time used for detecting the charsets in nanoseconds, or -1 if not known.
+	 * @param validation_time The time used for checking whether the document can be decoded in nanoseconds, or -1 if not known.
+	 * @param error_offset The offset of the first byte which cannot be decoded by the encoding setting, NO_ERROR or NOT_CHECKED.
+	 * @param candidate_error_offsets The offsets of the first bytes which cannot be decoded by the detected encodings, NO_ERROR or NOT_CHECKED for each encoding, or null if not checked.
+	 */
+	public DetectionResult(DetectedEncodings detected_encodings, String encoding, boolean is_decodable, boolean is_sampled, long checked_length, long detection_time, long validation_time, long error_offset, long[] candidate_error_offsets) {
+		this(detected_encodings, encoding, is_decodable, is_sampled, checked_length, detection_time, validation_time, error_offset, candidate_error_offsets, null);
+	}
+
+	/**
+	 * @param detected_encodings The detected encodings, or null.
+	 * @param checked_length The number of bytes checked for decoding, or -1 if not known.
+	 * @param detection_time The time used for detecting the charsets in nanoseconds, or -1 if not known.
+	 * @param validation_time The time used for checking whether the document can be decoded in nanoseconds, or -1 if not known.
+	 * @param error_offset The offset of the first byte which cannot be decoded by the encoding setting, NO_ERROR or NOT_CHECKED.
+	 * @param candidate_error_offsets The offsets of the first bytes which cannot be decoded by the detected encodings, NO_ERROR or NOT_CHECKED for each encoding, or null if not checked.
+	 * @param structure The structure of the document found when checking it, or null if not known.
+	 */
+	public DetectionResult(DetectedEncodings detected_encodings, String encoding, boolean is_decodable, boolean is_sampled, long checked_length, long detection_time, long validation_time, long error_offset, long[] candidate_error_offsets, DocumentStructure structure) {
+		if (candidate_error_offsets != null && (detected_encodings == null || candidate_error_offsets.length != detected_encodings.size())) throw new IllegalArgumentException("candidate_error_offsets should have the same length as the detected encodings.");
+		
+		this.detected_encodings = detected_encodings;
+		this.encoding = encoding;
+		this.is_decodable = is_decodable;
+		this.is_sampled = is_sampled;
+		this.checked_length = checked_length;
+		this.detection_time = detection_time;
+		this.validation_time = validation_time;
+		this.error_offset = error_offset;
+		this.candidate_error_offsets = candidate_error_offsets == null ? null : candidate_error_offsets.clone();
+		this.structure = structure;
+		is_checked = true;
+	}
+
+	/**
+	 * Create a result for a document which is not checked.
+	 */
+	private DetectionResult(String encoding) {
+		detected_encodings = null;
+		this.encoding = encoding;
+		is_decodable = false;
+		is_sampled = false;
+		checked_length = -1;
+		detection_time = -1;
+		validation_time = -1;
+		error_offset = NOT_CHECKED;
+		candidate_error_offsets = null;
+		is_checked = false;
+		structure = null;
+	}
+
+	/**
+	 * Create a result for a document which is not checked, e.g. reading the document timed out.
+	 * The result should not be cached, so that the document will be checked again.
+	 * @param encoding The encoding setting.
+	 */
+	public static DetectionResult createUnchecked(String encoding) {
+		return new DetectionResult(encoding);
+	}
+
+	/**
+	 * Check whether two results are the same, so that the encoding information need not be updated.
+	 * The checking information, like the detection time, is not compared.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) return true;
+		if (!(obj instanceof DetectionResult)) return false;
+
+		DetectionResult other = (DetectionResult) obj;
+		if (is_decodable != other.is_decodable || is_sampled != other.is_sampled || is_checked != other.is_checked) return false;
+		if (encoding == null ? other.encoding != null : !encoding.equals(other.encoding)) return false;
+		if (error_offset != other.error_offset || !Arrays.equals(candidate_error_offsets, other.candidate_error_offsets)) return false;
+		if (structure == null ? other.structure != null : !structure.equals(other.structure)) return false;
+		return detected_encodings == null ? other.detected_encodings == null : detected_encodings.equals(other.detected_encodings);
+	}
+
+	/**
+	 * Get the number of bytes checked for decoding, which is less than the document size if only a sample is checked.
+	 * @return the number of bytes, or -1 if not known.
+	 */
+	public long getCheckedLength() {
+		return checked_length;
+	}
+
+	/**
+	 * Get the detected encodings (and their confidences), the encoding with the highest confidence is the first.
+	 * @return the detected encodings or null.
+	 */
+	public DetectedEncodings getDetectedEncodings() {
+		return detected_encodings;
+	}
+
+	/**
+	 * Get the time used for detecting the charsets by the detectors, excluding reading and decoding the document.
+	 * @return the time in nanoseconds, or -1 if not known.
+	 */
+	public long getDetectionTime() {
+		return detection_time;
+	}
+
+	/**
+	 * Get the offset of the first byte which cannot be decoded by a detected encoding.
+	 * Only the detected encodings with the highest confidences are checked, in the same pass as the encoding setting.
+	 * @param index From 0 to getDetectedEncodings().size() - 1.
+	 * @return the offset, NO_ERROR if the document can be decoded, or NOT_CHECKED.
+	 */
+	public long getCandidateErrorOffset(int index) {
+		return candidate_error_offsets == null ? NOT_CHECKED : candidate_error_offsets[index];
+	}
+
+	/**
+	 * Get the encoding setting checked.
+	 * @return the encoding setting or null.
+	 */
+	public String getEncoding() {
+		return encoding;
+	}
+
+	/**
+	 * Get the confidence of the encoding setting, adjusted by whether the document can be decoded.
+	 * @return 0 if the document cannot be decoded or is not checked, at least 1 if the document can be decoded.
+	 */
+	public int getEncodingConfidence() {
+		if (!is_decodable) {
+			// CharsetDetector may not read all the input data, so the confidence may not be zero even if the text cannot be decoded.
+			return 0;
+		}
+		// CharsetDetector does not support all encodings, so the confidence may be zero even if the text can be decoded.
+		return Math.max(1, detected_encodings == null ? 0 : detected_encodings.getConfidence(encoding));
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = encoding == null ? 0 : encoding.hashCode();
+		hash = hash * 31 + (detected_encodings == null ? 0 : detected_encodings.hashCode());
+		hash = hash * 31 + Arrays.hashCode(candidate_error_offsets);
+		return hash * 8 + (is_checked ? 4 : 0) + (is_decodable ? 2 : 0) + (is_sampled ? 1 : 0);
+	}
+
+	/**
+	 * Check whether the document is checked, if not, only the encoding setting is available.
+	 * @return true/false
+	 */
+	public boolean isChecked() {
+		return is_checked;
+	}
+
+	/**
+	 * Get the offset of the first byte which cannot be decoded by the encoding setting.
+	 * If only a sample is checked, the error is the first one in the sample.
+	 * @return the offset, NO_ERROR if the document can be decoded, or NOT_CHECKED if not known.
+	 */
+	public long getErrorOffset() {
+		return error_offset;
+	}
+
+	/**
+	 * Get the structure of the document, like the line endings, found in the same pass as checking it for decoding.
+	 * If only a sample is checked, the structure is found in the sample.
+	 * @return the structure, or null if not known, e.g. the result is restored from an older index.
+	 */
+	public DocumentStructure getStructure() {
+		return structure;
+	}
+
+	/**
+	 * Get the time used for checking whether the document can be decoded, excluding reading the document.
+	 * @return the time in nanoseconds, or -1 if not known.
+	 */
+	public long getValidationTime() {
+		return validation_time;
+	}
+
+	/**
+	 * Check whether the document can be decoded by the encoding setting.
+	 * @return true/false
+	 */
+	public boolean isDecodable() {
+		return is_decodable;
+	}
+
+	/**
+	 * Check whether the encoding setting may be wrong, using the same rule as showing the label in red color.
+	 * That is, the document cannot be decoded, or another encoding is detected with a high confidence.
+	 * @return true/false
+	 */
+	public boolean isEncodingSuspicious() {
+		if (!is_checked) return false;
+		if (getEncodingConfidence() == 0) return true;
+		if (detected_encodings == null) return false;
+		return detected_encodings.indexOf(encoding) != 0 && detected_encodings.getConfidence(0) >= 50;
+	}
+
+	/**
+	 * Check whether only a sample of the document is checked, as the document is larger than the sample size.
+	 * If so, isDecodable() may be true even if the document cannot be decoded.
+	 * @return true/false
+	 */
+	public boolean isSampled() {
+		return is_sampled;
+	}
+}
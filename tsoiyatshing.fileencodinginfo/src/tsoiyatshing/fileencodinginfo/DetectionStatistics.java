@@ -0,0 +1,267 @@
+package tsoiyatshing.fileencodinginfo;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.osgi.service.debug.DebugOptions;
+import org.eclipse.osgi.service.debug.DebugOptionsListener;
+import org.eclipse.osgi.service.debug.DebugTrace;
+
+/**
+ * Collect the timings and the counters of the detection, for finding out where the time goes on a machine.
+ * The statistics are exposed as an MBean, and each event is traced if the corresponding debug option (see .options) is enabled.
+ * @author Tsoi Yat Shing
+ *
+ */
+class DetectionStatistics implements DetectionStatisticsMBean, DebugOptionsListener {
+	// The name of the MBean.
+	static final String OBJECT_NAME = Activator.PLUGIN_ID + ":type=DetectionStatistics";
+
+	// The debug option for tracing the detections in the worker threads.
+	private static final String DEBUG_DETECTION = "/debug/detection";
+
+	// The debug option for tracing the updates and the refreshes in the UI thread.
+	private static final String DEBUG_UI = "/debug/ui";
+
+	// The shared instance, which collects the statistics even if the MBean is not registered.
+	private static final DetectionStatistics instance = new DetectionStatistics();
+
+	// The number of detections run in the worker threads, and the time used by them.
+	private final AtomicLong detection_count = new AtomicLong();
+	private final AtomicLong worker_time = new AtomicLong();
+
+	// The number of bytes read by the detections.
+	private final AtomicLong bytes_read = new AtomicLong();
+
+	// The time used for detecting the charsets and for checking whether the documents can be decoded.
+	private final AtomicLong detection_time = new AtomicLong();
+	private final AtomicLong validation_time = new AtomicLong();
+
+	// The number of detections timed out.
+	private final AtomicLong timeout_count = new AtomicLong();
+
+	// The number of detections which got the result of the same detection run for another editor.
+	private final AtomicLong joined_detection_count = new AtomicLong();
+
+	// The number of lookups in the cache, found or not.
+	private final AtomicLong cache_hits = new AtomicLong();
+	private final AtomicLong cache_misses = new AtomicLong();
+
+	// The number of updates in the UI thread, and the time used by them.
+	private final AtomicLong update_count = new AtomicLong();
+	private final AtomicLong update_time = new AtomicLong();
+
+	// The number of refreshes of the label, and the time used by them.
+	private final AtomicLong refresh_count = new AtomicLong();
+	private final AtomicLong refresh_time = new AtomicLong();
+
+	// The trace for the debug options, or null if debugging is disabled.
+	private volatile DebugTrace trace;
+
+	// Indicate whether the detections are traced.
+	private volatile boolean is_detection_traced = false;
+
+	// Indicate whether the updates and the refreshes are traced.
+	private volatile boolean is_ui_traced = false;
+
+	private DetectionStatistics() {
+	}
+
+	/**
+	 * Get the shared instance.
+	 */
+	static DetectionStatistics getDefault() {
+		return instance;
+	}
+
+	@Override
+	public long getBytesRead() {
+		return bytes_read.get();
+	}
+
+	@Override
+	public long getCacheHits() {
+		return cache_hits.get();
+	}
+
+	@Override
+	public long getCacheMisses() {
+		return cache_misses.get();
+	}
+
+	@Override
+	public long getDetectionCount() {
+		return detection_count.get();
+	}
+
+	@Override
+	public long getDetectionTime() {
+		return detection_time.get();
+	}
+
+	@Override
+	public long getJoinedDetectionCount() {
+		return joined_detection_count.get();
+	}
+
+	@Override
+	public long getReadTime() {
+		return Math.max(0, worker_time.get() - detection_time.get() - validation_time.get());
+	}
+
+	@Override
+	public long getRefreshCount() {
+		return refresh_count.get();
+	}
+
+	@Override
+	public long getRefreshTime() {
+		return refresh_time.get();
+	}
+
+	@Override
+	public long getTimeoutCount() {
+		return timeout_count.get();
+	}
+
+	@Override
+	public long getUpdateCount() {
+		return update_count.get();
+	}
+
+	@Override
+	public long getUpdateTime() {
+		return update_time.get();
+	}
+
+	@Override
+	public long getValidationTime() {
+		return validation_time.get();
+	}
+
+	@Override
+	public long getWorkerTime() {
+		return worker_time.get();
+	}
+
+	@Override
+	public void optionsChanged(DebugOptions options) {
+		boolean is_debug_enabled = options.getBooleanOption(Activator.PLUGIN_ID + "/debug", false);
+		is_detection_traced = is_debug_enabled && options.getBooleanOption(Activator.PLUGIN_ID + DEBUG_DETECTION, false);
+		is_ui_traced = is_debug_enabled && options.getBooleanOption(Activator.PLUGIN_ID + DEBUG_UI, false);
+		trace = is_detection_traced || is_ui_traced ? options.newDebugTrace(Activator.PLUGIN_ID) : null;
+	}
+
+	/**
+	 * Record whether a detection result is found in the cache.
+	 * @param name The name of the document, for tracing.
+	 */
+	void recordCacheLookup(String name, boolean is_hit) {
+		(is_hit ? cache_hits : cache_misses).incrementAndGet();
+		
+		DebugTrace trace = this.trace;
+		if (trace != null && is_detection_traced) {
+			trace.trace(DEBUG_DETECTION, String.format("%s: cache %s", name, is_hit ? "hit" : "miss"));
+		}
+	}
+
+	/**
+	 * Record a detection run in a worker thread.
+	 * @param name The name of the document, for tracing.
+	 * @param result The detection result, or null if the document cannot be read.
+	 * @param time The time used by the worker thread in nanoseconds, including reading the document.
+	 */
+	void recordDetection(String name, DetectionResult result, long time) {
+		detection_count.incrementAndGet();
+		worker_time.addAndGet(time);
+		if (result != null) {
+			bytes_read.addAndGet(Math.max(0, result.getCheckedLength()));
+			detection_time.addAndGet(Math.max(0, result.getDetectionTime()));
+			validation_time.addAndGet(Math.max(0, result.getValidationTime()));
+		}
+		
+		DebugTrace trace = this.trace;
+		if (trace != null && is_detection_traced) {
+			if (result == null) {
+				trace.trace(DEBUG_DETECTION, String.format("%s: not readable, total %dus", name, time / 1000));
+			}
+			else {
+				trace.trace(DEBUG_DETECTION, String.format("%s: %d bytes, detection %dus, validation %dus, total %dus", name, result.getCheckedLength(), result.getDetectionTime() / 1000, result.getValidationTime() / 1000, time / 1000));
+			}
+		}
+	}
+
+	/**
+	 * Record a detection which waited for the same detection run for another editor.
+	 * @param name The name of the document, for tracing.
+	 * @param is_joined Whether the result is got, false if the other detection fails.
+	 */
+	void recordJoinedDetection(String name, boolean is_joined) {
+		if (is_joined) {
+			joined_detection_count.incrementAndGet();
+		}
+		
+		DebugTrace trace = this.trace;
+		if (trace != null && is_detection_traced) {
+			trace.trace(DEBUG_DETECTION, String.format("%s: %s", name, is_joined ? "joined the running detection" : "the running detection failed"));
+		}
+	}
+
+	/**
+	 * Record a refresh of the label in the status bar.
+	 * @param time The time used in nanoseconds.
+	 */
+	void recordRefresh(long time) {
+		refresh_count.incrementAndGet();
+		refresh_time.addAndGet(time);
+		
+		DebugTrace trace = this.trace;
+		if (trace != null && is_ui_traced) {
+			trace.trace(DEBUG_UI, String.format("refresh %dus", time / 1000));
+		}
+	}
+
+	/**
+	 * Record a detection given up as reading the document timed out.
+	 * @param name The name of the document, for tracing.
+	 */
+	void recordTimeout(String name) {
+		timeout_count.incrementAndGet();
+		
+		DebugTrace trace = this.trace;
+		if (trace != null && is_detection_traced) {
+			trace.trace(DEBUG_DETECTION, String.format("%s: timed out", name));
+		}
+	}
+
+	/**
+	 * Record an update of the encoding information in the UI thread.
+	 * @param name The name of the document, for tracing.
+	 * @param time The time used in nanoseconds.
+	 */
+	void recordUpdate(String name, long time) {
+		update_count.incrementAndGet();
+		update_time.addAndGet(time);
+		
+		DebugTrace trace = this.trace;
+		if (trace != null && is_ui_traced) {
+			trace.trace(DEBUG_UI, String.format("%s: update %dus", name, time / 1000));
+		}
+	}
+
+	@Override
+	public void reset() {
+		detection_count.set(0);
+		worker_time.set(0);
+		bytes_read.set(0);
+		detection_time.set(0);
+		validation_time.set(0);
+		timeout_count.set(0);
+		joined_detection_count.set(0);
+		cache_hits.set(0);
+		cache_misses.set(0);
+		update_count.set(0);
+		update_time.set(0);
+		refresh_count.set(0);
+		refresh_time.set(0);
+	}
+}
@@ -0,0 +1,84 @@
+package tsoiyatshing.fileencodinginfo;
+
+/**
+ * The management interface of DetectionStatistics, registered in the platform MBean server.
+ * The times are in nanoseconds, accumulated since the plug-in is started or the statistics are reset.
+ * @author Tsoi Yat Shing
+ *
+ */
+public interface DetectionStatisticsMBean {
+	/**
+	 * Get the number of documents detected in worker threads, excluding the cached results.
+	 */
+	public long getDetectionCount();
+
+	/**
+	 * Get the time used by the worker threads for detecting the documents, including reading the documents.
+	 */
+	public long getWorkerTime();
+
+	/**
+	 * Get the number of bytes read for detecting the documents.
+	 */
+	public long getBytesRead();
+
+	/**
+	 * Get the time used for detecting the charsets by the detectors.
+	 */
+	public long getDetectionTime();
+
+	/**
+	 * Get the time used for checking whether the documents can be decoded.
+	 */
+	public long getValidationTime();
+
+	/**
+	 * Get the time used for reading the documents, i.e. the worker time excluding the detection time and the validation time.
+	 */
+	public long getReadTime();
+
+	/**
+	 * Get the number of detections given up as reading the documents timed out.
+	 */
+	public long getTimeoutCount();
+
+	/**
+	 * Get the number of detections which waited for the same detection run for another editor, instead of reading the document again.
+	 */
+	public long getJoinedDetectionCount();
+
+	/**
+	 * Get the number of detection results found in the cache.
+	 */
+	public long getCacheHits();
+
+	/**
+	 * Get the number of detection results not found in the cache.
+	 */
+	public long getCacheMisses();
+
+	/**
+	 * Get the number of times the encoding information of the active document is updated in the UI thread.
+	 */
+	public long getUpdateCount();
+
+	/**
+	 * Get the time used for updating the encoding information of the active document in the UI thread.
+	 */
+	public long getUpdateTime();
+
+	/**
+	 * Get the number of times the label in the status bar is refreshed.
+	 */
+	public long getRefreshCount();
+
+	/**
+	 * Get the time used for refreshing the label in the status bar.
+	 */
+	public long getRefreshTime();
+
+	/**
+	 * Reset all the counters to zero.
+	 */
+	public void reset();
+}
@@ -0,0 +1,222 @@
+package tsoiyatshing.fileencodinginfo;
+
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentListener;
+
+/**
+ * Check whether the characters of a document (e.g. being edited) can be encoded by an encoding.
+ * The whole document is checked once by startCheck() in a worker thread, afterwards only the regions changed by DocumentEvent are checked.
+ * The checker is not registered as a document listener itself, the owner should pass the document events to it in order.
+ * @author Tsoi Yat Shing
+ *
+ */
+class DocumentEncodabilityChecker implements IDocumentListener {
+	// The number of characters checked at once, the characters are checked one by one only if a chunk cannot be encoded.
+	private static final int CHUNK_SIZE = 4096;
+
+	private final IDocument document;
+
+	private final Charset charset;
+
+	private final CharsetEncoder encoder;
+
+	// The offsets of the characters which cannot be encoded, the offset of the high surrogate is used for a surrogate pair.
+	private final TreeSet<Integer> unencodable_offsets = new TreeSet<Integer>();
+
+	// Indicate whether the whole document is checked, the document events are ignored before that.
+	private boolean is_checked = false;
+
+	// Indicate whether the whole document is being checked in a worker thread.
+	private boolean is_checking = false;
+
+	// Increased for each document change, so that the check of an outdated copy of the document can be discarded.
+	private int change_count = 0;
+
+	// Indicate whether the checker is discarded, the running check is stopped.
+	private volatile boolean is_disposed = false;
+
+	/**
+	 * @param document The document to check.
+	 * @param encoding The encoding.
+	 * @throws IllegalArgumentException if the encoding is not supported or cannot be used for encoding.
+	 */
+	public DocumentEncodabilityChecker(IDocument document, String encoding) {
+		charset = EncodingUtil.getCharset(encoding);
+		if (charset == null) throw new IllegalArgumentException("Encoding is not supported: " + encoding);
+		if (!charset.canEncode()) throw new IllegalArgumentException("Encoding is not supported by " + encoding);
+		
+		this.document = document;
+		encoder = charset.newEncoder();
+	}
+
+	/**
+	 * Check a text chunk by chunk, a surrogate pair is not split.
+	 * @param text The text to check.
+	 * @param offset The offset of the text in the document.
+	 * @param encoder The encoder, which is not shared by threads.
+	 * @param unencodable_offsets Add the offsets of the unencodable characters to it, the offsets in the text should be removed before.
+	 * @return true if the text is checked, false if the checker is disposed before.
+	 */
+	private boolean check(String text, int offset, CharsetEncoder encoder, Set<Integer> unencodable_offsets) {
+		int start = 0;
+		while (start < text.length()) {
+			if (is_disposed) return false;
+			
+			int end = Math.min(start + CHUNK_SIZE, text.length());
+			// Do not split a surrogate pair.
+			if (Character.isHighSurrogate(text.charAt(end - 1)) && end < text.length()) {
+				end++;
+			}
+			
+			String chunk = text.substring(start, end);
+			if (!encoder.canEncode(chunk)) {
+				for (int i = 0; i < chunk.length(); ) {
+					int char_count = Character.charCount(chunk.codePointAt(i));
+					boolean can_encode = char_count == 1 ? encoder.canEncode(chunk.charAt(i)) : encoder.canEncode(chunk.subSequence(i, i + char_count));
+					if (!can_encode) {
+						unencodable_offsets.add(offset + start + i);
+					}
+					i += char_count;
+				}
+			}
+			start = end;
+		}
+		return true;
+	}
+
+	/**
+	 * Check the region changed by a document event, including the adjacent characters, as a surrogate pair may be formed or broken.
+	 */
+	private void checkChangedRegion(int offset, int length) throws BadLocationException {
+		int start = Math.max(0, offset - 1);
+		int end = Math.min(document.getLength(), offset + length + 1);
+		// Do not start or end in the middle of a surrogate pair, e.g. when typing after an emoji.
+		if (start > 0 && Character.isLowSurrogate(document.getChar(start)) && Character.isHighSurrogate(document.getChar(start - 1))) {
+			start--;
+		}
+		if (end > start && end < document.getLength() && Character.isHighSurrogate(document.getChar(end - 1)) && Character.isLowSurrogate(document.getChar(end))) {
+			end++;
+		}
+		unencodable_offsets.subSet(start, end).clear();
+		if (end > start) {
+			check(document.get(start, end - start), start, encoder, unencodable_offsets);
+		}
+	}
+
+	/**
+	 * Stop the running check, the checker should not be used afterwards.
+	 */
+	public void dispose() {
+		is_disposed = true;
+	}
+
+	@Override
+	public void documentAboutToBeChanged(DocumentEvent event) {
+		if (!is_checked) return;
+		
+		// Remove the offsets in the replaced region, and shift the offsets after the region.
+		int end = event.getOffset() + event.getLength();
+		int shift = (event.getText() == null ? 0 : event.getText().length()) - event.getLength();
+		unencodable_offsets.subSet(event.getOffset(), end).clear();
+		if (shift != 0) {
+			SortedSet<Integer> tail = unencodable_offsets.tailSet(end);
+			List<Integer> shifted_offsets = new ArrayList<Integer>(tail.size());
+			for (Integer offset: tail) {
+				shifted_offsets.add(offset + shift);
+			}
+			tail.clear();
+			unencodable_offsets.addAll(shifted_offsets);
+		}
+	}
+
+	@Override
+	public void documentChanged(DocumentEvent event) {
+		change_count++;
+		if (!is_checked) return;
+		
+		try {
+			checkChangedRegion(event.getOffset(), event.getText() == null ? 0 : event.getText().length());
+		} catch (BadLocationException e) {
+			// The events are not passed in order, check the whole document again.
+			is_checked = false;
+		}
+	}
+
+	/**
+	 * Get the number of characters which cannot be encoded.
+	 * @return the number, or -1 if the whole document is not checked yet.
+	 */
+	public int getUnencodableCount() {
+		return is_checked ? unencodable_offsets.size() : -1;
+	}
+
+	/**
+	 * Check whether the whole document has been checked, so that getUnencodableCount() is available.
+	 */
+	public boolean isChecked() {
+		return is_checked;
+	}
+
+	/**
+	 * Check the whole document in a worker thread if not yet checked, so that a large document will not block the thread changing it (e.g. the UI thread).
+	 * The document is copied in the calling thread, and checked again if it is changed before the results are applied.
+	 * Should be called in the thread changing the document.
+	 * @param worker_executor Run the check in a worker thread.
+	 * @param owner_executor Apply the results in the thread changing the document.
+	 * @param callback Invoked in the thread changing the document when the whole document is checked.
+	 */
+	public void startCheck(final Executor worker_executor, final Executor owner_executor, final Runnable callback) {
+		if (is_checked || is_checking || is_disposed) return;
+		
+		is_checking = true;
+		final String text = document.get();
+		final int change_count = this.change_count;
+		worker_executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				final TreeSet<Integer> offsets = new TreeSet<Integer>();
+				if (!check(text, 0, charset.newEncoder(), offsets)) return;
+				
+				owner_executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						is_checking = false;
+						if (is_disposed || is_checked) return;
+						
+						if (change_count != DocumentEncodabilityChecker.this.change_count) {
+							// The document is changed during the check.
+							startCheck(worker_executor, owner_executor, callback);
+							return;
+						}
+						unencodable_offsets.clear();
+						unencodable_offsets.addAll(offsets);
+						is_checked = true;
+						callback.run();
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Check the whole document in the calling thread if not yet checked.
+	 */
+	public void update() {
+		if (is_checked) return;
+		
+		unencodable_offsets.clear();
+		check(document.get(), 0, encoder, unencodable_offsets);
+		is_checked = true;
+	}
+}
@@ -0,0 +1,191 @@
+package tsoiyatshing.fileencodinginfo;
+
+import java.util.Arrays;
+
+/**
+ * The structure of a document found when it is checked for decoding, as returned by DetectionResult.getStructure().
+ * Include the BOM, the numbers of the line endings, and the regions where the non-ASCII characters switch between UTF-8 and another encoding, e.g. a log partly in Big5 and partly in UTF-8.
+ * The lines are numbered from 1, the same as the editors. The result is immutable.
+ * @author Tsoi Yat Shing
+ *
+ */
+public class DocumentStructure {
+	// The encoding indicated by the BOM, or null if there is no BOM.
+	private final String bom;
+
+	// The number of LF line endings, or -1 if the line endings are not checked, e.g. the encoding is not compatible with ASCII.
+	private final long lf_count;
+
+	// The number of CRLF line endings, or -1 if the line endings are not checked.
+	private final long crlf_count;
+
+	// The number of CR line endings, or -1 if the line endings are not checked.
+	private final long cr_count;
+
+	// The line of the first byte which cannot be decoded by the encoding setting, or -1 if not known.
+	private final long error_line;
+
+	// The offsets of the first bytes of the regions, the first region starts at 0.
+	private final long[] region_offsets;
+
+	// The first lines of the regions, or -1 if not known, e.g. the region is in the middle of a sampled document.
+	private final long[] region_lines;
+
+	// Indicate whether the non-ASCII characters of each region are UTF-8.
+	private final boolean[] region_utf8_flags;
+
+	// Indicate whether there are more regions than those kept.
+	private final boolean is_region_truncated;
+
+	// Indicate whether the whole document is scanned, false if only a sample is scanned or the scanning is stopped early.
+	private final boolean is_complete;
+
+	/**
+	 * @param bom The encoding indicated by the BOM, or null if there is no BOM.
+	 * @param lf_count The number of LF line endings, or -1 if not checked, and so are crlf_count and cr_count.
+	 * @param error_line The line of the first byte which cannot be decoded by the encoding setting, or -1 if not known.
+	 * @param region_offsets The offsets of the first bytes of the regions, in ascending order.
+	 * @param region_lines The first lines of the regions, -1 if not known.
+	 * @param region_utf8_flags Whether the non-ASCII characters of each region are UTF-8.
+	 */
+	public DocumentStructure(String bom, long lf_count, long crlf_count, long cr_count, long error_line, long[] region_offsets, long[] region_lines, boolean[] region_utf8_flags, boolean is_region_truncated, boolean is_complete) {
+		if (region_offsets.length != region_lines.length || region_offsets.length != region_utf8_flags.length) throw new IllegalArgumentException("The region arrays should have the same length.");
+
+		this.bom = bom;
+		this.lf_count = lf_count;
+		this.crlf_count = crlf_count;
+		this.cr_count = cr_count;
+		this.error_line = error_line;
+		this.region_offsets = region_offsets.clone();
+		this.region_lines = region_lines.clone();
+		this.region_utf8_flags = region_utf8_flags.clone();
+		this.is_region_truncated = is_region_truncated;
+		this.is_complete = is_complete;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) return true;
+		if (!(obj instanceof DocumentStructure)) return false;
+
+		DocumentStructure other = (DocumentStructure) obj;
+		if (bom == null ? other.bom != null : !bom.equals(other.bom)) return false;
+		if (lf_count != other.lf_count || crlf_count != other.crlf_count || cr_count != other.cr_count || error_line != other.error_line) return false;
+		if (is_region_truncated != other.is_region_truncated || is_complete != other.is_complete) return false;
+		return Arrays.equals(region_offsets, other.region_offsets) && Arrays.equals(region_lines, other.region_lines) && Arrays.equals(region_utf8_flags, other.region_utf8_flags);
+	}
+
+	/**
+	 * Get the encoding indicated by the BOM.
+	 * @return the encoding, or null if there is no BOM.
+	 */
+	public String getBom() {
+		return bom;
+	}
+
+	/**
+	 * Get the number of CRLF line endings.
+	 * @return the number, or -1 if the line endings are not checked.
+	 */
+	public long getCrlfCount() {
+		return crlf_count;
+	}
+
+	/**
+	 * Get the number of CR line endings, i.e. not followed by LF.
+	 * @return the number, or -1 if the line endings are not checked.
+	 */
+	public long getCrCount() {
+		return cr_count;
+	}
+
+	/**
+	 * Get the line of the first byte which cannot be decoded by the encoding setting, see DetectionResult.getErrorOffset().
+	 * @return the line, or -1 if not known.
+	 */
+	public long getErrorLine() {
+		return error_line;
+	}
+
+	/**
+	 * Get the number of LF line endings, i.e. not preceded by CR.
+	 * @return the number, or -1 if the line endings are not checked.
+	 */
+	public long getLfCount() {
+		return lf_count;
+	}
+
+	/**
+	 * Get the number of regions kept, the regions alternate between UTF-8 and another encoding.
+	 * @return the number, 0 if there is no non-ASCII character.
+	 */
+	public int getRegionCount() {
+		return region_offsets.length;
+	}
+
+	/**
+	 * Get the first line of a region.
+	 * @param index From 0 to getRegionCount() - 1.
+	 * @return the line, or -1 if not known.
+	 */
+	public long getRegionLine(int index) {
+		return region_lines[index];
+	}
+
+	/**
+	 * Get the offset of the first byte of a region, the region ends at the start of the next region.
+	 * @param index From 0 to getRegionCount() - 1.
+	 */
+	public long getRegionOffset(int index) {
+		return region_offsets[index];
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = bom == null ? 0 : bom.hashCode();
+		hash = hash * 31 + (int) (lf_count ^ crlf_count ^ cr_count);
+		hash = hash * 31 + Arrays.hashCode(region_offsets);
+		return hash * 4 + (is_region_truncated ? 2 : 0) + (is_complete ? 1 : 0);
+	}
+
+	/**
+	 * Check whether the whole document is scanned.
+	 * @return false if only a sample is scanned, or the scanning is stopped early as the document cannot be decoded.
+	 */
+	public boolean isComplete() {
+		return is_complete;
+	}
+
+	/**
+	 * Check whether different line endings are used.
+	 * @return true/false
+	 */
+	public boolean isLineEndingMixed() {
+		return (lf_count > 0 ? 1 : 0) + (crlf_count > 0 ? 1 : 0) + (cr_count > 0 ? 1 : 0) > 1;
+	}
+
+	/**
+	 * Check whether the non-ASCII characters switch between UTF-8 and another encoding.
+	 * @return true/false
+	 */
+	public boolean isMixed() {
+		return region_offsets.length > 1;
+	}
+
+	/**
+	 * Check whether there are more regions than getRegionCount().
+	 * @return true/false
+	 */
+	public boolean isRegionTruncated() {
+		return is_region_truncated;
+	}
+
+	/**
+	 * Check whether the non-ASCII characters of a region are UTF-8.
+	 * @param index From 0 to getRegionCount() - 1.
+	 * @return true/false
+	 */
+	public boolean isRegionUtf8(int index) {
+		return region_utf8_flags[index];
+	}
+}
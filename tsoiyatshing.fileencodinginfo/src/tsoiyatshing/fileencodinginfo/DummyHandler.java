@@ -1,11 +1,12 @@
 package tsoiyatshing.fileencodinginfo;
 
-import org.eclipse.core.resources.IResourceChangeEvent;
+import java.util.Set;
+
+import org.eclipse.core.runtime.IPath;
 import org.eclipse.jface.viewers.ISelection;
 import org.eclipse.ui.IEditorPart;
 import org.eclipse.ui.IWorkbenchPart;
 
-import com.ibm.icu.text.CharsetMatch;
 
 /**
  * This is a dummy handler for ActiveDocumentAgent.
@@ -22,7 +23,24 @@ class DummyHandler implements IActiveDocumentAgentHandler {
 	}
 
 	@Override
-	public CharsetMatch[] getDetectedEncodings() {
+	public void activate() {
+	}
+
+	@Override
+	public void deactivate() {
+	}
+
+	@Override
+	public void dispose() {
+	}
+
+	@Override
+	public DetectedEncodings getDetectedEncodings() {
+		return null;
+	}
+
+	@Override
+	public DetectionResult getDetectionResult() {
 		return null;
 	}
 
@@ -46,12 +64,26 @@ class DummyHandler implements IActiveDocumentAgentHandler {
 		return null;
 	}
 
+	@Override
+	public int getUnencodableCharacterCount(String encoding) {
+		return -1;
+	}
+
+	@Override
+	public boolean isDetecting() {
+		return false;
+	}
+
+	@Override
+	public void prefetch() {
+	}
+
 	@Override
 	public void propertyChanged(Object source, int propId) {
 	}
 
 	@Override
-	public void resourceChanged(IResourceChangeEvent event) {
+	public void resourcesChanged(Set<IPath> changed_paths) {
 	}
 
 	@Override
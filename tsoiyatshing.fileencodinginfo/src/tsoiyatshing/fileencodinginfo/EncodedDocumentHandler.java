@@ -1,12 +1,22 @@
 package tsoiyatshing.fileencodinginfo;
 
-import org.eclipse.core.resources.IResourceChangeEvent;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentListener;
 import org.eclipse.jface.viewers.ISelection;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.ui.IEditorPart;
 import org.eclipse.ui.IWorkbenchPart;
 import org.eclipse.ui.editors.text.IEncodingSupport;
+import org.eclipse.ui.texteditor.IDocumentProvider;
+import org.eclipse.ui.texteditor.ITextEditor;
 
-import com.ibm.icu.text.CharsetMatch;
 
 /**
  * This handler handles editors which support IEncodingSupport for ActiveDocumentAgent.
@@ -15,6 +25,9 @@ import com.ibm.icu.text.CharsetMatch;
  */
 class EncodedDocumentHandler implements IActiveDocumentAgentHandler {
 
+	// The maximum number of encodings checked for the unsaved characters at the same time.
+	private static final int MAX_ENCODABILITY_CHECKERS = 4;
+	
 	// Invoke the callback on behalf of the agent.
 	private IActiveDocumentAgentCallback callback;
 	
@@ -26,6 +39,48 @@ class EncodedDocumentHandler implements IActiveDocumentAgentHandler {
 	
 	// The encoding setting of the text file.
 	private String encoding;
+	
+	// The document being edited, or null if the unsaved characters are not checked.
+	private IDocument document;
+	
+	// Check whether the characters of the document can be encoded, keyed by the encoding, the least recently used is removed.
+	private Map<String, DocumentEncodabilityChecker> encodability_checkers = new LinkedHashMap<String, DocumentEncodabilityChecker>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, DocumentEncodabilityChecker> eldest) {
+			if (size() <= MAX_ENCODABILITY_CHECKERS) return false;
+			eldest.getValue().dispose();
+			return true;
+		}
+	};
+	
+	// The number of characters which cannot be encoded by the encoding setting, when the document was last changed.
+	private int unencodable_count = 0;
+	
+	// Pass the document events to the checkers, and invoke the callback if a typed character cannot be encoded.
+	private IDocumentListener document_listener = new IDocumentListener() {
+		@Override
+		public void documentAboutToBeChanged(DocumentEvent event) {
+			for (DocumentEncodabilityChecker checker: encodability_checkers.values()) {
+				checker.documentAboutToBeChanged(event);
+			}
+		}
+
+		@Override
+		public void documentChanged(DocumentEvent event) {
+			for (DocumentEncodabilityChecker checker: encodability_checkers.values()) {
+				checker.documentChanged(event);
+			}
+			
+			// The whole document is checked in background for the first change, afterwards only the changed region is checked.
+			int unencodable_count = getUnencodableCharacterCount(encoding);
+			if (unencodable_count >= 0 && unencodable_count != EncodedDocumentHandler.this.unencodable_count) {
+				EncodedDocumentHandler.this.unencodable_count = unencodable_count;
+				callback.encodingInfoChanged();
+			}
+		}
+	};
 
 	public EncodedDocumentHandler(IEditorPart part, IActiveDocumentAgentCallback callback) {
 		if (callback == null) throw new IllegalArgumentException("callback must not be null.");
@@ -41,7 +96,37 @@ class EncodedDocumentHandler implements IActiveDocumentAgentHandler {
 	}
 
 	@Override
-	public CharsetMatch[] getDetectedEncodings() {
+	public void activate() {
+		// The encoding setting may be changed when the editor is inactive.
+		updateEncodingInfo();
+		
+		startLiveCheck();
+	}
+
+	@Override
+	public void deactivate() {
+		stopLiveCheck();
+	}
+
+	@Override
+	public void dispose() {
+		stopLiveCheck();
+	}
+
+	/**
+	 * Get the callback, for invoking it on behalf of the agent.
+	 */
+	protected IActiveDocumentAgentCallback getCallback() {
+		return callback;
+	}
+
+	@Override
+	public DetectedEncodings getDetectedEncodings() {
+		return null;
+	}
+
+	@Override
+	public DetectionResult getDetectionResult() {
 		return null;
 	}
 
@@ -65,12 +150,54 @@ class EncodedDocumentHandler implements IActiveDocumentAgentHandler {
 		return editor.getEditorInput().getName();
 	}
 
+	/**
+	 * Get the text editor of an editor, which may be the editor itself or its adapter, e.g. a page of a multi-page editor.
+	 * @return the text editor, or null if the editor has no text editor.
+	 */
+	static ITextEditor getTextEditor(IEditorPart editor) {
+		// IAdaptable.getAdapter() is not generic before Eclipse 4.5.
+		Object text_editor = editor instanceof ITextEditor ? editor : editor.getAdapter(ITextEditor.class);
+		return text_editor instanceof ITextEditor ? (ITextEditor) text_editor : null;
+	}
+
+	@Override
+	public int getUnencodableCharacterCount(String encoding) {
+		if (document == null || encoding == null) return -1;
+		
+		DocumentEncodabilityChecker checker = encodability_checkers.get(encoding);
+		if (checker == null) {
+			try {
+				checker = new DocumentEncodabilityChecker(document, encoding);
+			} catch (IllegalArgumentException e) {
+				// The encoding is not supported.
+				return -1;
+			}
+			encodability_checkers.put(encoding, checker);
+		}
+		if (!checker.isChecked()) {
+			startCheck(checker);
+		}
+		return checker.getUnencodableCount();
+	}
+
+	@Override
+	public boolean isDetecting() {
+		return false;
+	}
+
+	@Override
+	public void prefetch() {
+	}
+
 	@Override
 	public void propertyChanged(Object source, int propId) {
 		// It seems that the editor's encoding will not change when it is dirty.
 		if (!editor.isDirty()) {
+			// The warning of the unsaved characters is not shown for a saved document.
+			boolean is_warning_outdated = unencodable_count > 0;
+			unencodable_count = 0;
 			// The document may be just saved.
-			if (updateEncodingInfo()) {
+			if (updateEncodingInfo() || is_warning_outdated) {
 				// Invoke the callback if the encoding information is changed.
 				callback.encodingInfoChanged();
 			}
@@ -78,8 +205,8 @@ class EncodedDocumentHandler implements IActiveDocumentAgentHandler {
 	}
 
 	@Override
-	public void resourceChanged(IResourceChangeEvent event) {
-		// It seems that propertyChanged() can detect changes well already.
+	public void resourcesChanged(Set<IPath> changed_paths) {
+		// The document is not read, so only the encoding setting matters, and propertyChanged() can detect it well already.
 	}
 
 	@Override
@@ -87,6 +214,72 @@ class EncodedDocumentHandler implements IActiveDocumentAgentHandler {
 		// It seems that propertyChanged() can detect encoding setting changes well already.
 	}
 
+	/**
+	 * Start checking the unsaved characters of the document, if enabled by the preference and supported by the editor.
+	 * The characters are not checked until the document is changed or the results are needed.
+	 */
+	private void startLiveCheck() {
+		if (document != null) return;
+		if (Activator.getDefault() == null || !Activator.getDefault().getPreferenceStore().getBoolean(PreferenceConstants.LIVE_CHECK)) return;
+		
+		ITextEditor text_editor = getTextEditor(editor);
+		IDocumentProvider document_provider = text_editor == null ? null : text_editor.getDocumentProvider();
+		document = document_provider == null ? null : document_provider.getDocument(editor.getEditorInput());
+		if (document != null) {
+			document.addDocumentListener(document_listener);
+			unencodable_count = 0;
+		}
+	}
+
+	/**
+	 * Check the whole document for an encoding in a worker thread, as a large document would block the UI thread.
+	 * The callback is invoked when the results are available, called in the UI thread.
+	 */
+	private void startCheck(DocumentEncodabilityChecker checker) {
+		final DetectionExecutor executor = Activator.getDefault() == null ? null : Activator.getDefault().getDetectionExecutor();
+		final Display display = Display.getCurrent();
+		if (executor == null || display == null) return;
+		
+		checker.startCheck(new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				executor.submit(command);
+			}
+		}, new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				if (!display.isDisposed()) {
+					display.asyncExec(command);
+				}
+			}
+		}, new Runnable() {
+			@Override
+			public void run() {
+				// The count of the encoding setting is shown in the label, the others in the menu.
+				int unencodable_count = getUnencodableCharacterCount(encoding);
+				if (unencodable_count >= 0) {
+					EncodedDocumentHandler.this.unencodable_count = unencodable_count;
+				}
+				callback.encodingInfoChanged();
+			}
+		});
+	}
+
+	/**
+	 * Stop checking the unsaved characters of the document.
+	 * The results are discarded, as the document events are not received afterwards.
+	 */
+	private void stopLiveCheck() {
+		if (document != null) {
+			document.removeDocumentListener(document_listener);
+			document = null;
+		}
+		for (DocumentEncodabilityChecker checker: encodability_checkers.values()) {
+			checker.dispose();
+		}
+		encodability_checkers.clear();
+	}
+
 	@Override
 	public void setEncoding(String encoding) {
 		encoding_support.setEncoding(encoding);
@@ -0,0 +1,356 @@
+package tsoiyatshing.fileencodinginfo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.resources.ResourceAttributes;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.core.runtime.jobs.Job;
+
+/**
+ * Convert the text files in some resources to an encoding, and change their encoding settings.
+ * The files are converted to temporary files by several threads at the same time, streaming through StreamTranscoder.
+ * Then the temporary files replace the files in a workspace operation, together with the encoding settings,
+ * so a file is either converted with its encoding setting changed, or left unchanged.
+ * @author Tsoi Yat Shing
+ *
+ */
+class EncodingConvertJob extends Job {
+	// The suffix of the temporary files.
+	private static final String TEMP_FILE_SUFFIX = ".convert.tmp";
+
+	// The maximum time waiting for the running conversions when cancelled, so that their temporary files can be deleted.
+	private static final long CANCEL_TIMEOUT = 10000;
+
+	// The resources to convert.
+	private final IResource[] resources;
+
+	// The encoding to convert to.
+	private final String target_encoding;
+
+	// The number of files converted.
+	private volatile int converted_count = 0;
+
+	// The number of files skipped, as they are already in the target encoding, counted by the worker threads.
+	private final AtomicInteger skipped_count = new AtomicInteger();
+
+	// The number of files which cannot be converted, the reasons are logged.
+	private final AtomicInteger failed_count = new AtomicInteger();
+
+	/**
+	 * @param resources The resources to convert.
+	 * @param target_encoding The encoding to convert to, should be supported.
+	 */
+	public EncodingConvertJob(IResource[] resources, String target_encoding) {
+		super("Convert encodings");
+		this.resources = resources;
+		this.target_encoding = target_encoding;
+		setUser(true);
+		setPriority(Job.LONG);
+	}
+
+	/**
+	 * Replace the files by the converted files, and change their encoding settings.
+	 * Stop if cancelled, the remaining files are left unchanged.
+	 */
+	private void commit(List<Conversion> conversions, IProgressMonitor monitor) throws CoreException {
+		SubMonitor progress = SubMonitor.convert(monitor, "Replacing files", conversions.size());
+		for (Conversion conversion: conversions) {
+			if (progress.isCanceled()) {
+				conversion.discard();
+				continue;
+			}
+			try {
+				conversion.commit(progress.newChild(1));
+				converted_count++;
+			} catch (CoreException e) {
+				logFailure(conversion.file, e);
+			}
+		}
+	}
+
+	/**
+	 * Convert a file to a temporary file, run in a worker thread.
+	 * @return the conversion, or null if the file is skipped.
+	 * @throws CoreException if the file cannot be read.
+	 * @throws IOException if the file cannot be converted.
+	 */
+	private Conversion convert(IFile file, IProgressMonitor monitor) throws CoreException, IOException {
+		if (monitor.isCanceled() || !file.exists()) return null;
+
+		String source_encoding = file.getCharset(true);
+		if (EncodingUtil.areCharsetsEqual(source_encoding, target_encoding)) {
+			skipped_count.incrementAndGet();
+			return null;
+		}
+		ResourceAttributes attributes = file.getResourceAttributes();
+		if (attributes != null && attributes.isReadOnly()) throw new IOException("The file is read-only.");
+		StreamTranscoder transcoder = new StreamTranscoder(source_encoding, target_encoding);
+
+		// The temporary file is not in the workspace, as its content is copied to the file by setContents(), which keeps the local history.
+		File temp_file = File.createTempFile("." + file.getName() + ".", TEMP_FILE_SUFFIX);
+		boolean is_converted = false;
+		try {
+			// Read the local file directly if possible, which is faster than using the stream of the workspace.
+			IPath location = file.getLocation();
+			InputStream in = location != null ? new FileInputStream(location.toFile()) : file.getContents(true);
+			try {
+				OutputStream out = new FileOutputStream(temp_file);
+				try {
+					transcoder.transcode(in, out);
+				}
+				finally {
+					out.close();
+				}
+			}
+			finally {
+				in.close();
+			}
+			is_converted = !monitor.isCanceled();
+		}
+		finally {
+			if (!is_converted) {
+				temp_file.delete();
+			}
+		}
+		return is_converted ? new Conversion(file, temp_file) : null;
+	}
+
+	/**
+	 * Get the number of files which cannot be converted.
+	 */
+	public int getFailedCount() {
+		return failed_count.get();
+	}
+
+	/**
+	 * Get the number of files converted.
+	 */
+	public int getConvertedCount() {
+		return converted_count;
+	}
+
+	/**
+	 * Get the number of files skipped, as they are already in the target encoding.
+	 */
+	public int getSkippedCount() {
+		return skipped_count.get();
+	}
+
+	/**
+	 * Get the encoding to convert to.
+	 */
+	public String getTargetEncoding() {
+		return target_encoding;
+	}
+
+	/**
+	 * Log the reason why a file cannot be converted.
+	 */
+	private void logFailure(IFile file, Throwable e) {
+		failed_count.incrementAndGet();
+		Activator.log(IStatus.WARNING, "Cannot convert " + file.getFullPath() + " to " + target_encoding + ".", e);
+	}
+
+	@Override
+	protected IStatus run(final IProgressMonitor monitor) {
+		SubMonitor progress = SubMonitor.convert(monitor, "Convert encodings", 100);
+
+		List<IFile> files;
+		try {
+			files = EncodingScanJob.collectFiles(resources, progress.newChild(5));
+		} catch (CoreException e) {
+			return e.getStatus();
+		}
+		if (progress.isCanceled()) return Status.CANCEL_STATUS;
+
+		// Convert the files by several threads, and wait for the results in this thread, so that the progress can be reported.
+		List<Conversion> conversions = new ArrayList<Conversion>();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+		CompletionService<Conversion> completion_service = new ExecutorCompletionService<Conversion>(executor);
+		boolean is_canceled = false;
+		try {
+			for (final IFile file: files) {
+				completion_service.submit(new Callable<Conversion>() {
+					@Override
+					public Conversion call() throws Exception {
+						try {
+							return convert(file, monitor);
+						} catch (Exception e) {
+							// Skip the file which cannot be converted.
+							logFailure(file, e);
+							return null;
+						}
+					}
+				});
+			}
+
+			SubMonitor convert_progress = progress.newChild(80).setWorkRemaining(files.size());
+			for (int i = 0; i < files.size() && !is_canceled; i++) {
+				Future<Conversion> future;
+				while ((future = completion_service.poll(100, TimeUnit.MILLISECONDS)) == null && !is_canceled) {
+					is_canceled = convert_progress.isCanceled();
+				}
+				if (future == null) break;
+
+				try {
+					Conversion conversion = future.get();
+					if (conversion != null) {
+						conversions.add(conversion);
+					}
+				} catch (ExecutionException e) {
+					// Only errors are thrown, the exceptions are logged by the conversion.
+					failed_count.incrementAndGet();
+					Activator.log(IStatus.ERROR, "Cannot convert a file to " + target_encoding + ".", e.getCause());
+				}
+				convert_progress.subTask(String.format("%d/%d files converted", i + 1, files.size()));
+				convert_progress.worked(1);
+				is_canceled = convert_progress.isCanceled();
+			}
+		} catch (InterruptedException e) {
+			// Stop the conversions not yet started.
+			monitor.setCanceled(true);
+			is_canceled = true;
+		} finally {
+			executor.shutdown();
+		}
+
+		if (is_canceled) {
+			// The running conversions delete their temporary files when cancelled, wait for them before deleting the others.
+			try {
+				executor.awaitTermination(CANCEL_TIMEOUT, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				// Delete the temporary files found so far.
+			}
+			Future<Conversion> future;
+			while ((future = completion_service.poll()) != null) {
+				try {
+					Conversion conversion = future.get();
+					if (conversion != null) {
+						conversions.add(conversion);
+					}
+				} catch (InterruptedException e) {
+					break;
+				} catch (ExecutionException e) {
+					// The file is not converted.
+				}
+			}
+			for (Conversion conversion: conversions) {
+				conversion.discard();
+			}
+			monitor.done();
+			return Status.CANCEL_STATUS;
+		}
+
+		// Replace the files in one workspace operation, so that the resource changes are notified once.
+		final List<Conversion> committed_conversions = conversions;
+		try {
+			ResourcesPlugin.getWorkspace().run(new IWorkspaceRunnable() {
+				@Override
+				public void run(IProgressMonitor monitor) throws CoreException {
+					commit(committed_conversions, monitor);
+				}
+			}, progress.newChild(15));
+		} catch (CoreException e) {
+			return e.getStatus();
+		} finally {
+			// Delete the temporary files which are not committed, e.g. cancelled.
+			for (Conversion conversion: conversions) {
+				conversion.discard();
+			}
+			monitor.done();
+		}
+		return progress.isCanceled() ? Status.CANCEL_STATUS : Status.OK_STATUS;
+	}
+
+	/**
+	 * A file converted to a temporary file, which is not yet committed.
+	 */
+	private class Conversion {
+		// The file to replace.
+		final IFile file;
+
+		// The converted file.
+		final File temp_file;
+
+		Conversion(IFile file, File temp_file) {
+			this.file = file;
+			this.temp_file = temp_file;
+		}
+
+		/**
+		 * Change the encoding setting of the file, and replace the content of the file by the temporary file.
+		 * The encoding setting is changed first, so that the converted content is never left with the old encoding setting,
+		 * and it is restored if the file cannot be replaced.
+		 * The old content is kept in the local history, so that the conversion can be undone on every platform.
+		 */
+		void commit(IProgressMonitor monitor) throws CoreException {
+			SubMonitor progress = SubMonitor.convert(monitor, 3);
+			// The explicit encoding setting, or null if it is inherited from the parent.
+			String encoding_setting = file.getCharset(false);
+			file.setCharset(target_encoding, progress.newChild(1));
+			boolean is_replaced = false;
+			try {
+				InputStream in;
+				try {
+					in = new FileInputStream(temp_file);
+				} catch (FileNotFoundException e) {
+					throw new CoreException(new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Cannot read " + temp_file, e));
+				}
+				// The stream is closed by setContents().
+				file.setContents(in, IResource.KEEP_HISTORY, progress.newChild(2));
+				is_replaced = true;
+			}
+			finally {
+				if (!is_replaced) {
+					restoreEncodingSetting(encoding_setting);
+				}
+				discard();
+			}
+		}
+
+		/**
+		 * Delete the temporary file.
+		 */
+		void discard() {
+			temp_file.delete();
+		}
+
+		/**
+		 * Restore the encoding setting of the file, which is not replaced.
+		 * @param encoding_setting The explicit encoding setting before the conversion, or null.
+		 */
+		private void restoreEncodingSetting(String encoding_setting) {
+			try {
+				file.setCharset(encoding_setting, null);
+			} catch (CoreException e) {
+				Activator.log(IStatus.ERROR, "Cannot restore the encoding setting of " + file.getFullPath() + " to " + encoding_setting + ".", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package tsoiyatshing.fileencodinginfo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IConfigurationElement;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
+
+/**
+ * Build the detector chain from the extension point tsoiyatshing.fileencodinginfo.detectors.
+ * The contributed detectors are tried after FastEncodingDetector and before ICU, in descending order of priority.
+ * The contributed classes are not loaded until they are first used.
+ * @author Tsoi Yat Shing
+ *
+ */
+class EncodingDetectorRegistry {
+	// The ID of the extension point.
+	public static final String EXTENSION_POINT_ID = Activator.PLUGIN_ID + ".detectors";
+
+	/**
+	 * Get the detectors, including the built-in and the contributed detectors.
+	 * @return the detectors in the order to try.
+	 */
+	public static IEncodingDetector[] getDetectors() {
+		IConfigurationElement[] elements = Platform.getExtensionRegistry().getConfigurationElementsFor(EXTENSION_POINT_ID);
+		// The elements with higher priority are tried first.
+		Arrays.sort(elements, new Comparator<IConfigurationElement>() {
+			@Override
+			public int compare(IConfigurationElement a, IConfigurationElement b) {
+				return getPriority(b) - getPriority(a);
+			}
+		});
+		
+		List<IEncodingDetector> detectors = new ArrayList<IEncodingDetector>();
+		detectors.add(new FastEncodingDetector());
+		for (IConfigurationElement element: elements) {
+			if ("detector".equals(element.getName())) {
+				detectors.add(new ContributedDetector(element));
+			}
+		}
+		detectors.add(new IcuEncodingDetector());
+		return detectors.toArray(new IEncodingDetector[detectors.size()]);
+	}
+
+	/**
+	 * Get the priority of a contributed detector.
+	 * @return the priority, or 0 if not specified or invalid.
+	 */
+	private static int getPriority(IConfigurationElement element) {
+		try {
+			String priority = element.getAttribute("priority");
+			return priority == null ? 0 : Integer.parseInt(priority.trim());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Log a problem of a contributed detector.
+	 */
+	private static void log(IConfigurationElement element, String message, Throwable exception) {
+		Activator activator = Activator.getDefault();
+		if (activator != null) {
+			activator.getLog().log(new Status(IStatus.ERROR, Activator.PLUGIN_ID,
+					String.format("%s: %s (contributed by %s)", message, element.getAttribute("class"), element.getContributor().getName()), exception));
+		}
+	}
+
+	/**
+	 * Create the contributed detector when it is first used.
+	 * A detector which cannot be created or throws an exception is disabled, so that it will not break the detection.
+	 */
+	private static class ContributedDetector implements IEncodingDetector {
+		private final IConfigurationElement element;
+
+		// The contributed detector, or null if not created yet.
+		private IEncodingDetector detector;
+
+		// Indicate whether the detector is disabled.
+		private volatile boolean is_disabled = false;
+
+		public ContributedDetector(IConfigurationElement element) {
+			this.element = element;
+		}
+
+		@Override
+		public DetectedEncodings detect(byte[] data, int length, String encoding) {
+			if (is_disabled) return null;
+			
+			IEncodingDetector detector = getDetector();
+			if (detector == null) return null;
+			try {
+				return detector.detect(data, length, encoding);
+			} catch (RuntimeException e) {
+				is_disabled = true;
+				log(element, "Encoding detector is disabled", e);
+				return null;
+			}
+		}
+
+		/**
+		 * Get the contributed detector, create it if not created yet.
+		 * @return the detector, or null if it cannot be created.
+		 */
+		private synchronized IEncodingDetector getDetector() {
+			if (detector == null && !is_disabled) {
+				try {
+					detector = (IEncodingDetector) element.createExecutableExtension("class");
+				} catch (CoreException e) {
+					is_disabled = true;
+					log(element, "Cannot create encoding detector", e);
+				} catch (ClassCastException e) {
+					is_disabled = true;
+					log(element, "Encoding detector does not implement IEncodingDetector", e);
+				}
+			}
+			return detector;
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package tsoiyatshing.fileencodinginfo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceProxy;
+import org.eclipse.core.resources.IResourceProxyVisitor;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.core.runtime.content.IContentType;
+import org.eclipse.core.runtime.content.IContentTypeManager;
+import org.eclipse.core.runtime.jobs.Job;
+
+/**
+ * Scan the files in some resources, and find the files whose encoding settings may be wrong.
+ * The files are detected by several threads at the same time.
+ * @author Tsoi Yat Shing
+ *
+ */
+class EncodingScanJob extends Job {
+	// The resources to scan.
+	private final IResource[] resources;
+
+	// The files whose encoding settings may be wrong.
+	private final List<EncodingScanResult> results = Collections.synchronizedList(new ArrayList<EncodingScanResult>());
+
+	// The number of files scanned.
+	private volatile int scanned_count = 0;
+
+	public EncodingScanJob(IResource[] resources) {
+		super("Scan encodings");
+		this.resources = resources;
+		setUser(true);
+		setPriority(Job.LONG);
+	}
+
+	/**
+	 * Collect the files in some resources, excluding derived files and non-text files.
+	 * Also used by EncodingConvertJob.
+	 */
+	static List<IFile> collectFiles(IResource[] resources, IProgressMonitor monitor) throws CoreException {
+		final List<IFile> files = new ArrayList<IFile>();
+		final IContentType text_content_type = Platform.getContentTypeManager().getContentType(IContentTypeManager.CT_TEXT);
+		
+		SubMonitor progress = SubMonitor.convert(monitor, "Collecting files", resources.length);
+		for (IResource resource: resources) {
+			if (progress.isCanceled()) break;
+			
+			// IResourceProxyVisitor is faster than IResourceVisitor, as the resources are created only when needed.
+			resource.accept(new IResourceProxyVisitor() {
+				@Override
+				public boolean visit(IResourceProxy proxy) throws CoreException {
+					if (proxy.isDerived()) return false;
+					if (proxy.getType() == IResource.FILE) {
+						// Skip the files known to be binary.
+						IContentType content_type = Platform.getContentTypeManager().findContentTypeFor(proxy.getName());
+						if (content_type == null || text_content_type == null || content_type.isKindOf(text_content_type)) {
+							files.add((IFile) proxy.requestResource());
+						}
+					}
+					return true;
+				}
+			}, IResource.NONE);
+			progress.worked(1);
+		}
+		return files;
+	}
+
+	/**
+	 * Get the files whose encoding settings may be wrong.
+	 */
+	public List<EncodingScanResult> getResults() {
+		synchronized (results) {
+			return new ArrayList<EncodingScanResult>(results);
+		}
+	}
+
+	/**
+	 * Get the number of files scanned.
+	 */
+	public int getScannedCount() {
+		return scanned_count;
+	}
+
+	@Override
+	protected IStatus run(final IProgressMonitor monitor) {
+		SubMonitor progress = SubMonitor.convert(monitor, "Scan encodings", 100);
+		
+		List<IFile> files;
+		try {
+			files = collectFiles(resources, progress.newChild(10));
+		} catch (CoreException e) {
+			return e.getStatus();
+		}
+		if (progress.isCanceled()) return Status.CANCEL_STATUS;
+		
+		// Detect the files by several threads, and wait for the results in this thread, so that the progress can be reported.
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+		try {
+			CompletionService<EncodingScanResult> completion_service = new ExecutorCompletionService<EncodingScanResult>(executor);
+			for (final IFile file: files) {
+				completion_service.submit(new Callable<EncodingScanResult>() {
+					@Override
+					public EncodingScanResult call() throws Exception {
+						return scan(file, monitor);
+					}
+				});
+			}
+			
+			SubMonitor scan_progress = progress.newChild(90).setWorkRemaining(files.size());
+			for (int i = 0; i < files.size(); i++) {
+				Future<EncodingScanResult> future;
+				while ((future = completion_service.poll(100, TimeUnit.MILLISECONDS)) == null) {
+					if (scan_progress.isCanceled()) return Status.CANCEL_STATUS;
+				}
+				
+				try {
+					EncodingScanResult result = future.get();
+					if (result != null) {
+						results.add(result);
+					}
+				} catch (ExecutionException e) {
+					// Skip the file which cannot be read.
+					Activator.log(IStatus.WARNING, "Cannot scan a file.", e.getCause());
+				}
+				scanned_count++;
+				scan_progress.subTask(String.format("%d/%d files scanned, %d found", scanned_count, files.size(), results.size()));
+				scan_progress.worked(1);
+				
+				if (scan_progress.isCanceled()) return Status.CANCEL_STATUS;
+			}
+		} catch (InterruptedException e) {
+			return Status.CANCEL_STATUS;
+		} finally {
+			executor.shutdownNow();
+			monitor.done();
+		}
+		return Status.OK_STATUS;
+	}
+
+	/**
+	 * Detect the encoding of a file, run in a worker thread.
+	 * @param monitor The progress monitor of the job, for stopping the detection when the job is cancelled.
+	 * @return the result if the encoding setting may be wrong, otherwise null.
+	 */
+	private EncodingScanResult scan(IFile file, IProgressMonitor monitor) throws CoreException, IOException {
+		if (!file.exists()) return null;
+		
+		String encoding = file.getCharset(true);
+		
+		// Use the cached result if available, but do not use or add the cached results, so that the cached results of the editors are not evicted and the statistics are not skewed.
+		DetectionCache cache = Activator.getDefault() == null ? null : Activator.getDefault().getDetectionCache();
+		String cache_key = cache == null ? null : WorkspaceTextFileHandler.getCacheKey(file);
+		DetectionResult result = cache_key == null ? null : cache.peek(cache_key, encoding);
+		if (result == null || result.isSampled()) {
+			IPath location = file.getLocation();
+			if (location != null) {
+				result = EncodingUtil.detect(location.toFile(), encoding, 0, monitor);
+			}
+			else {
+				result = EncodingUtil.detect(file.getContents(true), encoding, 0, monitor);
+			}
+		}
+		
+		return result != null && result.isEncodingSuspicious() ? new EncodingScanResult(file, encoding, result) : null;
+	}
+}
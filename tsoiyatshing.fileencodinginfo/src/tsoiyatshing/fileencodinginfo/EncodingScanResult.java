@@ -0,0 +1,37 @@
+package tsoiyatshing.fileencodinginfo;
+
+import org.eclipse.core.resources.IFile;
+
+/**
+ * A file found by EncodingScanJob, whose encoding setting may be wrong.
+ * @author Tsoi Yat Shing
+ *
+ */
+class EncodingScanResult {
+	// The file scanned.
+	private final IFile file;
+
+	// The encoding setting of the file.
+	private final String encoding;
+
+	// The detection result of the file.
+	private final DetectionResult detection_result;
+
+	public EncodingScanResult(IFile file, String encoding, DetectionResult detection_result) {
+		this.file = file;
+		this.encoding = encoding;
+		this.detection_result = detection_result;
+	}
+
+	public DetectionResult getDetectionResult() {
+		return detection_result;
+	}
+
+	public String getEncoding() {
+		return encoding;
+	}
+
+	public IFile getFile() {
+		return file;
+	}
+}
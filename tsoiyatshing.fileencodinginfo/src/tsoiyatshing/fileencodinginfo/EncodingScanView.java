@@ -0,0 +1,190 @@
+package tsoiyatshing.fileencodinginfo;
+
+import java.util.List;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.jface.dialogs.ErrorDialog;
+import org.eclipse.jface.viewers.ArrayContentProvider;
+import org.eclipse.jface.viewers.ColumnLabelProvider;
+import org.eclipse.jface.viewers.DoubleClickEvent;
+import org.eclipse.jface.viewers.IDoubleClickListener;
+import org.eclipse.jface.viewers.IStructuredSelection;
+import org.eclipse.jface.viewers.TableViewer;
+import org.eclipse.jface.viewers.TableViewerColumn;
+import org.eclipse.jface.viewers.Viewer;
+import org.eclipse.jface.viewers.ViewerComparator;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.TableColumn;
+import org.eclipse.ui.PartInitException;
+import org.eclipse.ui.ide.IDE;
+import org.eclipse.ui.part.ViewPart;
+
+/**
+ * Show the files found by EncodingScanJob, whose encoding settings may be wrong.
+ * Double-click a file to open it.
+ * @author Tsoi Yat Shing
+ *
+ */
+public class EncodingScanView extends ViewPart {
+	public static final String ID = "tsoiyatshing.fileencodinginfo.views.EncodingScan";
+
+	private TableViewer viewer;
+
+	// Sort the results by the clicked column.
+	private ResultComparator comparator = new ResultComparator();
+
+	/**
+	 * Add a column to the table.
+	 * @param column_index The index passed to ResultComparator.
+	 */
+	private void addColumn(String title, int width, final int column_index, ColumnLabelProvider label_provider) {
+		TableViewerColumn viewer_column = new TableViewerColumn(viewer, SWT.NONE);
+		final TableColumn column = viewer_column.getColumn();
+		column.setText(title);
+		column.setWidth(width);
+		column.setMoveable(true);
+		viewer_column.setLabelProvider(label_provider);
+		
+		column.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				comparator.setColumn(column_index);
+				viewer.getTable().setSortColumn(column);
+				viewer.getTable().setSortDirection(comparator.isDescending() ? SWT.DOWN : SWT.UP);
+				viewer.refresh();
+			}
+		});
+	}
+
+	@Override
+	public void createPartControl(Composite parent) {
+		viewer = new TableViewer(parent, SWT.MULTI | SWT.H_SCROLL | SWT.V_SCROLL | SWT.FULL_SELECTION);
+		viewer.getTable().setHeaderVisible(true);
+		viewer.getTable().setLinesVisible(true);
+		viewer.setContentProvider(ArrayContentProvider.getInstance());
+		viewer.setComparator(comparator);
+		
+		addColumn("File", 200, 0, new ColumnLabelProvider() {
+			@Override
+			public String getText(Object element) {
+				return getColumnText(element, 0);
+			}
+		});
+		addColumn("Folder", 250, 1, new ColumnLabelProvider() {
+			@Override
+			public String getText(Object element) {
+				return getColumnText(element, 1);
+			}
+		});
+		addColumn("Encoding", 100, 2, new ColumnLabelProvider() {
+			@Override
+			public String getText(Object element) {
+				return getColumnText(element, 2);
+			}
+		});
+		addColumn("Detected", 150, 3, new ColumnLabelProvider() {
+			@Override
+			public String getText(Object element) {
+				return getColumnText(element, 3);
+			}
+		});
+		addColumn("Decodable", 80, 4, new ColumnLabelProvider() {
+			@Override
+			public String getText(Object element) {
+				return getColumnText(element, 4);
+			}
+		});
+		
+		viewer.addDoubleClickListener(new IDoubleClickListener() {
+			@Override
+			public void doubleClick(DoubleClickEvent event) {
+				Object element = ((IStructuredSelection) event.getSelection()).getFirstElement();
+				if (element instanceof EncodingScanResult) {
+					IFile file = ((EncodingScanResult) element).getFile();
+					if (file.exists()) {
+						try {
+							IDE.openEditor(getSite().getPage(), file);
+						} catch (PartInitException e) {
+							ErrorDialog.openError(getSite().getShell(), "Encoding Scan", "Cannot open " + file.getFullPath() + ".", e.getStatus());
+						}
+					}
+				}
+			}
+		});
+		
+		setContentDescription("Select some resources and run Scan Encodings.");
+	}
+
+	/**
+	 * Get the text shown in a column, also used for sorting.
+	 */
+	private static String getColumnText(Object element, int column_index) {
+		EncodingScanResult result = (EncodingScanResult) element;
+		switch (column_index) {
+		case 0:
+			return result.getFile().getName();
+		case 1:
+			return result.getFile().getParent().getFullPath().toString();
+		case 2:
+			return result.getEncoding();
+		case 3:
+			DetectedEncodings detected_encodings = result.getDetectionResult().getDetectedEncodings();
+			if (detected_encodings == null) return "";
+			return String.format("%s (%d%%)", detected_encodings.getName(0), detected_encodings.getConfidence(0));
+		case 4:
+			return result.getDetectionResult().isDecodable() ? "Yes" : "No";
+		}
+		return "";
+	}
+
+	@Override
+	public void setFocus() {
+		viewer.getControl().setFocus();
+	}
+
+	/**
+	 * Show the results of a scan.
+	 * @param results The files found.
+	 * @param scanned_count The number of files scanned.
+	 * @param is_cancelled Whether the scan is cancelled, so that the results are partial.
+	 */
+	public void setResults(List<EncodingScanResult> results, int scanned_count, boolean is_cancelled) {
+		viewer.setInput(results);
+		setContentDescription(String.format("%d of %d files scanned may have wrong encoding settings%s.",
+				results.size(), scanned_count, is_cancelled ? " (cancelled)" : ""));
+	}
+
+	/**
+	 * Sort the results by a column, click the same column again to reverse the order.
+	 */
+	private static class ResultComparator extends ViewerComparator {
+		// The column to sort, -1 to keep the order of the results.
+		private int column_index = -1;
+
+		private boolean is_descending = false;
+
+		@Override
+		public int compare(Viewer viewer, Object e1, Object e2) {
+			if (column_index < 0) return 0;
+			int result = getComparator().compare(getColumnText(e1, column_index), getColumnText(e2, column_index));
+			return is_descending ? -result : result;
+		}
+
+		public boolean isDescending() {
+			return is_descending;
+		}
+
+		public void setColumn(int column_index) {
+			if (this.column_index == column_index) {
+				is_descending = !is_descending;
+			}
+			else {
+				this.column_index = column_index;
+				is_descending = false;
+			}
+		}
+	}
+}
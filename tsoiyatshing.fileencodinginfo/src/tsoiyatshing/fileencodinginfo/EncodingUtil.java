@@ -1,14 +1,21 @@
 package tsoiyatshing.fileencodinginfo;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 
-import com.ibm.icu.text.CharsetDetector;
-import com.ibm.icu.text.CharsetMatch;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 
 /**
  * Provide encoding related utility functions.
@@ -16,6 +23,49 @@ import com.ibm.icu.text.CharsetMatch;
  *
  */
 public class EncodingUtil {
+	// The amount of data used by CharsetDetector, the same as that read by CharsetDetector.setText(InputStream).
+	private static final int DETECTION_SAMPLE_SIZE = 8000;
+	
+	// The size of the buffer for reading an input stream, large enough for the sample and for checking the candidates concurrently.
+	private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+	
+	// The maximum number of detected encodings checked for decoding, besides the encoding setting.
+	private static final int MAX_VALIDATED_CANDIDATES = 3;
+	
+	// The maximum number of bytes of a character in the supported encodings, for finding the start of a character.
+	private static final int MAX_CHARACTER_LENGTH = 4;
+	
+	// Smaller files are read as streams, as mapping a file costs more than reading a small file.
+	private static final long MIN_MAPPED_FILE_SIZE = 256 * 1024;
+	
+	// The size of the chunks of a buffer checked at a time, the detection can be cancelled between the chunks.
+	private static final int BUFFER_CHUNK_SIZE = 4 * 1024 * 1024;
+	
+	// A mapped file cannot be modified on Windows until the mapping is garbage collected, which may prevent the editor from saving the file.
+	private static final boolean IS_MAPPING_SUPPORTED = !System.getProperty("os.name", "").startsWith("Windows");
+	
+	// The maximum number of charset names cached, in case that many different names are looked up.
+	private static final int MAX_CACHED_CHARSET_NAMES = 1024;
+	
+	// Cached for the charset names which are not supported, as null cannot be stored in ConcurrentHashMap.
+	private static final Object UNSUPPORTED_CHARSET = new Object();
+	
+	// Map a charset name (including the aliases) to the canonical Charset object, or UNSUPPORTED_CHARSET.
+	// Lookup in ConcurrentHashMap neither locks nor allocates, unlike Charset.forName().
+	private static final ConcurrentMap<String, Object> charsets_by_name = new ConcurrentHashMap<String, Object>();
+	
+	// Map the canonical name of a charset to the canonical Charset object, so that the Charset objects can be compared by identity.
+	private static final ConcurrentMap<String, Charset> canonical_charsets = new ConcurrentHashMap<String, Charset>();
+	
+	// The built-in detectors, ICU is the last one as it is the slowest.
+	private static final IEncodingDetector[] DEFAULT_DETECTORS = {new FastEncodingDetector(), new IcuEncodingDetector()};
+	
+	// The detectors tried in order, until one of them returns a result.
+	private static volatile IEncodingDetector[] detectors = DEFAULT_DETECTORS;
+	
+	// Check the candidates concurrently, or null to check them in the calling thread.
+	private static volatile Executor validation_executor;
+	
 	/**
 	 * Check whether two charset strings really mean the same thing.
 	 * For UTF-8, acceptable variants are utf-8, utf8.
@@ -27,87 +77,443 @@ public class EncodingUtil {
 	public static boolean areCharsetsEqual(String a, String b) {
 		if (a == null || b == null) return false;
 		
+		Charset charset = getCharset(a);
+		return charset != null && charset == getCharset(b);
+	}
+	
+	/**
+	 * Detect the possible charsets of some data, and check whether the data can be decoded by an encoding.
+	 * @see #detect(ByteBuffer, String, long, IProgressMonitor)
+	 */
+	public static DetectionResult detect(ByteBuffer data, String encoding) {
+		return detect(data, encoding, 0, null);
+	}
+	
+	/**
+	 * Detect the possible charsets of some data, and check whether the data can be decoded by an encoding.
+	 * @see #detect(ByteBuffer, String, long, IProgressMonitor)
+	 */
+	public static DetectionResult detect(ByteBuffer data, String encoding, long sample_size) {
+		return detect(data, encoding, sample_size, null);
+	}
+	
+	/**
+	 * Detect the possible charsets of some data, and check whether the data can be decoded by an encoding.
+	 * The data is used directly, only the small sample for CharsetDetector is copied.
+	 * If the data is larger than the sample size, only the head, the middle and the tail of the data are checked.
+	 * @param data The data, e.g. a memory-mapped file, the position of the buffer is not changed.
+	 * @param encoding The encoding to check, may be null.
+	 * @param sample_size The maximum number of bytes to check, or 0 to check all the data.
+	 * @param monitor The progress monitor checked between the chunks and the windows of the data, may be null.
+	 * @return the detection result.
+	 * @throws OperationCanceledException if the monitor is cancelled.
+	 */
+	public static DetectionResult detect(ByteBuffer data, String encoding, long sample_size, IProgressMonitor monitor) {
+		// CharsetDetector only accepts byte array.
+		byte[] sample = new byte[Math.min(DETECTION_SAMPLE_SIZE, data.remaining())];
+		data.duplicate().get(sample);
+		
+		// The candidates to check are known after detecting the charsets.
+		long detection_start_time = System.nanoTime();
+		DetectedEncodings detected_encodings = detectCharsets(sample, sample.length, encoding);
+		long detection_time = System.nanoTime() - detection_start_time;
+		String[] candidates = getCandidates(encoding, detected_encodings);
+		
+		// The windows at the head, the middle and the tail of the data, if it is larger than the sample size.
+		int head_size = 0;
+		int middle_size = 0;
+		int tail_size = 0;
+		int middle_offset = 0;
+		int tail_offset = 0;
+		boolean is_sampled = sample_size > 0 && data.remaining() > sample_size;
+		if (is_sampled) {
+			head_size = (int) (sample_size / 2);
+			middle_size = (int) (sample_size / 4);
+			tail_size = (int) (sample_size - head_size - middle_size);
+			middle_offset = (data.remaining() - middle_size) / 2;
+			tail_offset = data.remaining() - tail_size;
+			// The windows touch or overlap if the data is only slightly larger than the sample, then the data would be checked and scanned twice, so check all the data instead.
+			if (middle_offset <= head_size || tail_offset <= middle_offset + middle_size) {
+				is_sampled = false;
+			}
+		}
+		long[] error_offsets = new long[candidates.length];
+		// The structure is scanned after the data is checked, while the data is still in the cache, so that the line of the error can be found.
+		StructureScanner scanner = new StructureScanner(encoding, sample, sample.length);
+		long validation_start_time = System.nanoTime();
+		if (!is_sampled) {
+			// A large (e.g. memory-mapped) buffer is checked chunk by chunk, so that the detection can be cancelled.
+			MultiDecodingValidator validator = new MultiDecodingValidator(candidates, validation_executor);
+			int length = data.remaining();
+			for (int offset = 0; offset < length; offset += BUFFER_CHUNK_SIZE) {
+				checkCanceled(monitor);
+				ByteBuffer chunk = getWindow(data, offset, Math.min(BUFFER_CHUNK_SIZE, length - offset));
+				validator.update(chunk);
+				scanner.setErrorOffset(validator.getErrorOffset(0));
+				scanner.update(chunk, offset);
+			}
+			validator.finish();
+			for (int i = 0; i < candidates.length; i++) {
+				error_offsets[i] = validator.getErrorOffset(i);
+			}
+			scanner.setErrorOffset(error_offsets[0]);
+			scanner.finish();
+		}
+		else {
+			// Check the windows until an error is found for each candidate.
+			for (int i = 0; i < candidates.length; i++) {
+				error_offsets[i] = getCharset(candidates[i]) == null ? DetectionResult.NOT_CHECKED : DetectionResult.NO_ERROR;
+			}
+			checkCanceled(monitor);
+			checkWindow(data, 0, head_size, true, false, candidates, error_offsets);
+			checkCanceled(monitor);
+			checkWindow(data, middle_offset, middle_size, false, false, candidates, error_offsets);
+			checkCanceled(monitor);
+			checkWindow(data, tail_offset, tail_size, false, true, candidates, error_offsets);
+			scanner.setErrorOffset(error_offsets[0]);
+			scanner.update(getWindow(data, 0, head_size), 0);
+			scanner.update(getWindow(data, middle_offset, middle_size), middle_offset);
+			scanner.update(getWindow(data, tail_offset, tail_size), tail_offset);
+		}
+		long validation_time = System.nanoTime() - validation_start_time;
+		
+		long checked_length = is_sampled ? sample_size : data.remaining();
+		return createResult(detected_encodings, encoding, candidates, error_offsets, scanner.createStructure(), is_sampled, checked_length, detection_time, validation_time);
+	}
+	
+	/**
+	 * Detect the possible charsets of a local file, and check whether the file can be decoded by an encoding.
+	 * @see #detect(File, String, long, IProgressMonitor)
+	 */
+	public static DetectionResult detect(File file, String encoding) throws IOException {
+		return detect(file, encoding, 0, null);
+	}
+	
+	/**
+	 * Detect the possible charsets of a local file, and check whether the file can be decoded by an encoding.
+	 * Large files are memory-mapped if possible, other files are read as streams.
+	 * @param file The local file.
+	 * @param encoding The encoding to check, may be null.
+	 * @param sample_size The maximum number of bytes to check, or 0 to check the whole file.
+	 * @param monitor The progress monitor for cancelling the detection, may be null.
+	 * @return the detection result, or null if the file does not exist.
+	 * @throws IOException if the file cannot be read.
+	 * @throws OperationCanceledException if the monitor is cancelled.
+	 */
+	public static DetectionResult detect(File file, String encoding, long sample_size, IProgressMonitor monitor) throws IOException {
+		if (file == null || !file.isFile()) return null;
+		
+		FileInputStream in = new FileInputStream(file);
+		long size = file.length();
+		if (!IS_MAPPING_SUPPORTED || size < MIN_MAPPED_FILE_SIZE || size > Integer.MAX_VALUE) {
+			return detect(in, encoding, sample_size, monitor);
+		}
+		
+		ByteBuffer data;
 		try {
-			return Charset.forName(a).name().equals(Charset.forName(b).name());
-		} catch (IllegalArgumentException e) {
-			return false;
+			FileChannel channel = in.getChannel();
+			// The mapping is still valid after the channel is closed.
+			data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
 		}
+		finally {
+			in.close();
+		}
+		return detect(data, encoding, sample_size, monitor);
+	}
+	
+	/**
+	 * Detect the possible charsets of an input stream, and check whether the input stream can be decoded by an encoding.
+	 * @see #detect(InputStream, String, long, IProgressMonitor)
+	 */
+	public static DetectionResult detect(InputStream in, String encoding) throws IOException {
+		return detect(in, encoding, 0, null);
 	}
 	
 	/**
-	 * Detect the possible charsets of an input stream using ICU.
+	 * Detect the possible charsets of an input stream, and check whether the input stream can be decoded by an encoding.
+	 * The input stream is read once only, the data is provided to CharsetDetector and DecodingValidator at the same time.
+	 * If the input stream is larger than the sample size, only the head of the input stream is checked.
 	 * @param in The input stream, should close the stream before return.
-	 * @return the detected charsets or null.
+	 * @param encoding The encoding to check, may be null.
+	 * @param sample_size The maximum number of bytes to read, or 0 to read the whole input stream.
+	 * @param monitor The progress monitor checked between the chunks, may be null. A DetectionMonitor also closes the stream when cancelled.
+	 * @return the detection result, or null if the input stream is null.
+	 * @throws IOException if the input stream cannot be read.
+	 * @throws OperationCanceledException if the monitor is cancelled.
 	 */
-	public static CharsetMatch[] detectCharsets(InputStream in) {
+	public static DetectionResult detect(InputStream in, String encoding, long sample_size, IProgressMonitor monitor) throws IOException {
 		if (in != null) {
 			try {
-				// CharsetDetector.setText() requires that markSupported() == true.
-				InputStream bin = new BufferedInputStream(in);
 				try {
-					CharsetDetector detector = new CharsetDetector();
-					detector.setText(bin);
-					return detector.detectAll();
+					long max_length = sample_size > 0 ? sample_size : Long.MAX_VALUE;
+					
+					// Read the sample for the detectors first, the candidates to check are known after detecting the charsets.
+					byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+					int len = readFully(in, buffer, (int) Math.min(DETECTION_SAMPLE_SIZE, max_length));
+					long detection_start_time = System.nanoTime();
+					DetectedEncodings detected_encodings = detectCharsets(buffer, len, encoding);
+					long detection_time = System.nanoTime() - detection_start_time;
+					String[] candidates = getCandidates(encoding, detected_encodings);
+					
+					// The data is read once, and each chunk is checked by all the candidates and scanned for the structure.
+					MultiDecodingValidator validator = new MultiDecodingValidator(candidates, validation_executor);
+					StructureScanner scanner = new StructureScanner(encoding, buffer, len);
+					// The time used for reading the input stream is excluded.
+					long validation_time = 0;
+					boolean is_sampled = false;
+					boolean is_checking = true;
+					long length = len;
+					for (;;) {
+						if (len > 0) {
+							long validation_start_time = System.nanoTime();
+							if (is_checking) {
+								is_checking = validator.update(buffer, 0, len);
+								scanner.setErrorOffset(validator.getErrorOffset(0));
+							}
+							// Scan the chunk after checking it, so that the line of the error can be found.
+							scanner.update(buffer, 0, len, length - len);
+							validation_time += System.nanoTime() - validation_start_time;
+							// No more data is needed if no candidate can decode the data, unless the lines are scanned, e.g. for the regions of different encodings.
+							if (!is_checking && !scanner.isLineChecked()) break;
+						}
+						if (is_sampled) break;
+						
+						checkCanceled(monitor);
+						len = in.read(buffer);
+						if (len < 0) {
+							// The last character may be incomplete in a sample, so only check it when the input stream is read entirely.
+							long validation_start_time = System.nanoTime();
+							if (is_checking) {
+								validator.finish();
+								scanner.setErrorOffset(validator.getErrorOffset(0));
+							}
+							scanner.finish();
+							validation_time += System.nanoTime() - validation_start_time;
+							break;
+						}
+						if (len > max_length - length) {
+							// Ignore the data out of the sample.
+							len = (int) (max_length - length);
+							is_sampled = true;
+						}
+						length += len;
+					}
+					
+					long[] error_offsets = new long[candidates.length];
+					for (int i = 0; i < candidates.length; i++) {
+						error_offsets[i] = validator.getErrorOffset(i);
+					}
+					return createResult(detected_encodings, encoding, candidates, error_offsets, scanner.createStructure(), is_sampled, length, detection_time, validation_time);
 				}
 				finally {
-					bin.close();
+					in.close();
 				}
 			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+				// Reading fails if the stream is closed by the cancelled monitor.
+				checkCanceled(monitor);
+				throw e;
 			}
 		}
 		return null;
 	}
 	
 	/**
-	 * Get the confidence of a charset, given a set of CharsetMatch.
-	 * @return the confidence of the charset, or 0 if not founded.
+	 * Stop the detection if the progress monitor is cancelled.
+	 * @param monitor The progress monitor, may be null.
+	 * @throws OperationCanceledException if the monitor is cancelled.
 	 */
-	public static int getConfidence(CharsetMatch[] charset_match_list, String charset) {
-		if (charset_match_list == null || charset == null) return 0;
+	private static void checkCanceled(IProgressMonitor monitor) {
+		if (monitor != null && monitor.isCanceled()) throw new OperationCanceledException();
+	}
+	
+	/**
+	 * Detect the possible charsets of some data using the detectors in order, until one of them returns a result.
+	 * @param data The data.
+	 * @param length The length of the data.
+	 * @param encoding The encoding setting, a hint for the detectors.
+	 * @return the detected charsets or null.
+	 */
+	private static DetectedEncodings detectCharsets(byte[] data, int length, String encoding) {
+		for (IEncodingDetector detector: detectors) {
+			DetectedEncodings detected_encodings = detector.detect(data, length, encoding);
+			if (detected_encodings != null) return detected_encodings;
+		}
+		return null;
+	}
+	
+	/**
+	 * Get the canonical Charset object of a charset name, the same object is returned for the aliases of a charset.
+	 * The results (including unsupported names) are cached, so that comparing charset names does not call Charset.forName() again.
+	 * @param name The charset name.
+	 * @return the Charset object, or null if the name is null or not supported.
+	 */
+	static Charset getCharset(String name) {
+		if (name == null) return null;
 		
-		for (CharsetMatch match: charset_match_list) {
-			if (areCharsetsEqual(match.getName(), charset)) {
-				return match.getConfidence();
+		Object charset = charsets_by_name.get(name);
+		if (charset == null) {
+			try {
+				Charset found_charset = Charset.forName(name);
+				// Charset.forName() may return different objects for the same charset, so keep the first one.
+				Charset canonical_charset = canonical_charsets.putIfAbsent(found_charset.name(), found_charset);
+				charset = canonical_charset == null ? found_charset : canonical_charset;
+			} catch (IllegalArgumentException e) {
+				// IllegalCharsetNameException or UnsupportedCharsetException.
+				charset = UNSUPPORTED_CHARSET;
+			}
+			if (charsets_by_name.size() < MAX_CACHED_CHARSET_NAMES) {
+				charsets_by_name.putIfAbsent(name, charset);
 			}
 		}
-		return 0;
+		return charset == UNSUPPORTED_CHARSET ? null : (Charset) charset;
 	}
 	
 	/**
-	 * Check whether an input stream can be decoded by an encoding.
-	 * @param in The input stream, should close the stream before return.
-	 * @return true/false.
+	 * Set the detectors used by detect().
+	 * @param detectors The detectors tried in order, or null to use the built-in detectors.
 	 */
-	public static boolean isDecodable(InputStream in, String encoding) {
-		if (in != null) {
-			try {
-				try {
-					if (encoding != null) {
-						ByteArrayOutputStream out = new ByteArrayOutputStream();
-						byte[] buffer = new byte[4096];
-						int len;
-						while((len = in.read(buffer)) > 0) {
-							out.write(buffer, 0, len);
-						}
-						
-						// Try to decode the input stream using the encoding.
-						try {
-							Charset.forName(encoding).newDecoder().decode(ByteBuffer.wrap(out.toByteArray()));
-							return true;
-						} catch (IOException e) {
-						}
+	static void setDetectors(IEncodingDetector[] detectors) {
+		EncodingUtil.detectors = detectors == null ? DEFAULT_DETECTORS : detectors.clone();
+	}
+	
+	/**
+	 * Set the executor for checking the candidates concurrently.
+	 * @param executor The executor, or null to check the candidates in the calling thread.
+	 */
+	static void setValidationExecutor(Executor executor) {
+		validation_executor = executor;
+	}
+	
+	/**
+	 * Read an input stream into a buffer, until the length is read or the end of the stream is reached.
+	 * @return the number of bytes read.
+	 */
+	private static int readFully(InputStream in, byte[] buffer, int length) throws IOException {
+		int n = 0;
+		while (n < length) {
+			int len = in.read(buffer, n, length - n);
+			if (len < 0) break;
+			n += len;
+		}
+		return n;
+	}
+	
+	/**
+	 * Get a window of some data.
+	 * @param data The data.
+	 * @param offset The offset of the window, relative to the position of the data.
+	 * @param length The length of the window.
+	 * @return the window, the position of the data is not changed.
+	 */
+	private static ByteBuffer getWindow(ByteBuffer data, int offset, int length) {
+		ByteBuffer window = data.duplicate();
+		window.position(data.position() + offset);
+		window.limit(data.position() + offset + length);
+		return window;
+	}
+	
+	/**
+	 * Check a window of some data for the candidates, which have no error found in the previous windows.
+	 * @param data The data.
+	 * @param offset The offset of the window, relative to the position of the data.
+	 * @param length The length of the window.
+	 * @param is_start Whether the window is at the start of the data, otherwise the window may start in the middle of a character.
+	 * @param is_end Whether the window is at the end of the data, otherwise the window may end in the middle of a character.
+	 * @param candidates The encodings to check.
+	 * @param error_offsets The offsets of the first errors of the candidates, updated for the candidates which cannot decode the window.
+	 */
+	private static void checkWindow(ByteBuffer data, int offset, int length, boolean is_start, boolean is_end, String[] candidates, long[] error_offsets) {
+		ByteBuffer window = getWindow(data, offset, length);
+		String[] pending_candidates = new String[candidates.length];
+		long[] window_error_offsets = new long[candidates.length];
+		for (int i = 0; i < candidates.length; i++) {
+			if (error_offsets[i] == DetectionResult.NO_ERROR) {
+				pending_candidates[i] = candidates[i];
+			}
+		}
+		
+		// Skip the bytes of the incomplete character at the start of the window, by trying the possible starting positions.
+		int max_skip = is_start ? 0 : Math.min(MAX_CHARACTER_LENGTH - 1, window.remaining());
+		for (int skip = 0; skip <= max_skip; skip++) {
+			ByteBuffer skipped_window = window.duplicate();
+			skipped_window.position(skipped_window.position() + skip);
+			MultiDecodingValidator validator = new MultiDecodingValidator(pending_candidates, validation_executor);
+			validator.update(skipped_window);
+			if (is_end) {
+				validator.finish();
+			}
+			
+			boolean is_pending = false;
+			for (int i = 0; i < candidates.length; i++) {
+				if (pending_candidates[i] == null) continue;
+				
+				long error_offset = validator.getErrorOffset(i);
+				if (error_offset < 0) {
+					// The window can be decoded, or the candidate is not supported.
+					if (error_offset == DetectionResult.NOT_CHECKED) error_offsets[i] = DetectionResult.NOT_CHECKED;
+					pending_candidates[i] = null;
+				}
+				else {
+					// The starting position leading to the latest error is the most likely one.
+					window_error_offsets[i] = Math.max(window_error_offsets[i], offset + skip + error_offset);
+					is_pending = true;
+				}
+			}
+			if (!is_pending) return;
+		}
+		
+		for (int i = 0; i < candidates.length; i++) {
+			if (pending_candidates[i] != null) {
+				error_offsets[i] = window_error_offsets[i];
+			}
+		}
+	}
+	
+	/**
+	 * Create a detection result, with the errors of the candidates.
+	 * @param candidates The encodings checked, returned by getCandidates().
+	 * @param error_offsets The offsets of the first errors of the candidates.
+	 * @param structure The structure of the data checked.
+	 */
+	private static DetectionResult createResult(DetectedEncodings detected_encodings, String encoding, String[] candidates, long[] error_offsets, DocumentStructure structure, boolean is_sampled, long checked_length, long detection_time, long validation_time) {
+		long[] candidate_error_offsets = null;
+		if (detected_encodings != null) {
+			candidate_error_offsets = new long[detected_encodings.size()];
+			Arrays.fill(candidate_error_offsets, DetectionResult.NOT_CHECKED);
+			int setting_index = detected_encodings.indexOf(encoding);
+			for (int i = 0; i < candidate_error_offsets.length; i++) {
+				if (i == setting_index) {
+					candidate_error_offsets[i] = error_offsets[0];
+					continue;
+				}
+				for (int j = 1; j < candidates.length; j++) {
+					if (candidates[j].equals(detected_encodings.getName(i))) {
+						candidate_error_offsets[i] = error_offsets[j];
+						break;
 					}
 				}
-				finally {
-					in.close();
+			}
+		}
+		
+		boolean is_decodable = error_offsets[0] == DetectionResult.NO_ERROR;
+		return new DetectionResult(detected_encodings, encoding, is_decodable, is_sampled, checked_length, detection_time, validation_time, error_offsets[0], candidate_error_offsets, structure);
+	}
+	
+	/**
+	 * Get the encodings to check for some data.
+	 * @return the encoding setting (may be null) followed by the detected encodings with the highest confidences, excluding the encoding setting.
+	 */
+	private static String[] getCandidates(String encoding, DetectedEncodings detected_encodings) {
+		List<String> candidates = new ArrayList<String>(1 + MAX_VALIDATED_CANDIDATES);
+		candidates.add(encoding);
+		if (detected_encodings != null) {
+			for (int i = 0; i < Math.min(detected_encodings.size(), MAX_VALIDATED_CANDIDATES); i++) {
+				String name = detected_encodings.getName(i);
+				if (!areCharsetsEqual(name, encoding)) {
+					candidates.add(name);
 				}
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
 			}
 		}
-		return false;
+		return candidates.toArray(new String[candidates.size()]);
 	}
 }
@@ -0,0 +1,100 @@
+package tsoiyatshing.fileencodinginfo;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Detect the common cases cheaply, before trying the slower detectors like ICU.
+ * The data is checked for a BOM, pure 7-bit ASCII and strict UTF-8 by Utf8Validator, 8 bytes at a time for the ASCII parts.
+ * Other data (e.g. containing NUL, which may be UTF-16 without BOM) is left to the next detector.
+ * @author Tsoi Yat Shing
+ *
+ */
+class FastEncodingDetector implements IEncodingDetector {
+	// The number of valid multi-byte sequences for being sure that the data is UTF-8, the same as ICU.
+	private static final int MIN_UTF8_SEQUENCES = 4;
+
+	// Remember whether an encoding decodes ASCII as ASCII.
+	private static final Map<String, Boolean> ascii_compatibility = new ConcurrentHashMap<String, Boolean>();
+
+	@Override
+	public DetectedEncodings detect(byte[] data, int length, String encoding) {
+		DetectedEncodings detected_encodings = detectBom(data, length);
+		if (detected_encodings != null) return detected_encodings;
+		
+		// The last sequence may be incomplete, as the data may be the beginning of a document.
+		ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+		int sequence_count = Utf8Validator.countSequences(buffer, 0, length);
+		if (sequence_count < 0) return null;
+		if (sequence_count == 0 && Utf8Validator.validateAscii(buffer, 0, length) == length) {
+			// Pure ASCII can be decoded by any ASCII compatible encoding equally well, so keep the encoding setting.
+			if (encoding != null && isAsciiCompatible(encoding) && !EncodingUtil.areCharsetsEqual(encoding, "UTF-8")) {
+				return new DetectedEncodings(new String[] {encoding, "UTF-8"}, new int[] {100, 100});
+			}
+			return new DetectedEncodings(new String[] {"UTF-8"}, new int[] {100});
+		}
+		return new DetectedEncodings(new String[] {"UTF-8"}, new int[] {sequence_count >= MIN_UTF8_SEQUENCES ? 100 : 80});
+	}
+
+	/**
+	 * Detect the Unicode encodings by BOM.
+	 * @return the detected encoding, or null if there is no BOM.
+	 */
+	private static DetectedEncodings detectBom(byte[] data, int length) {
+		String name = getBomEncoding(data, length);
+		return name == null ? null : new DetectedEncodings(new String[] {name}, new int[] {100});
+	}
+
+	/**
+	 * Get the Unicode encoding indicated by the BOM.
+	 * @return the encoding, or null if there is no BOM.
+	 */
+	static String getBomEncoding(byte[] data, int length) {
+		String name = null;
+		if (length >= 3 && (data[0] & 0xFF) == 0xEF && (data[1] & 0xFF) == 0xBB && (data[2] & 0xFF) == 0xBF) {
+			name = "UTF-8";
+		}
+		else if (length >= 4 && data[0] == 0 && data[1] == 0 && (data[2] & 0xFF) == 0xFE && (data[3] & 0xFF) == 0xFF) {
+			name = "UTF-32BE";
+		}
+		else if (length >= 4 && (data[0] & 0xFF) == 0xFF && (data[1] & 0xFF) == 0xFE && data[2] == 0 && data[3] == 0) {
+			name = "UTF-32LE";
+		}
+		else if (length >= 2 && (data[0] & 0xFF) == 0xFE && (data[1] & 0xFF) == 0xFF) {
+			name = "UTF-16BE";
+		}
+		else if (length >= 2 && (data[0] & 0xFF) == 0xFF && (data[1] & 0xFF) == 0xFE) {
+			name = "UTF-16LE";
+		}
+		return name;
+	}
+
+	/**
+	 * Check whether an encoding decodes ASCII characters (except NUL) as ASCII.
+	 */
+	static boolean isAsciiCompatible(String encoding) {
+		Boolean is_compatible = ascii_compatibility.get(encoding);
+		if (is_compatible == null) {
+			byte[] ascii = new byte[0x7F];
+			for (int i = 0; i < ascii.length; i++) {
+				ascii[i] = (byte) (i + 1);
+			}
+			Charset charset = EncodingUtil.getCharset(encoding);
+			if (charset != null) {
+				String decoded = new String(ascii, charset);
+				is_compatible = decoded.length() == ascii.length;
+				for (int i = 0; is_compatible && i < ascii.length; i++) {
+					is_compatible = decoded.charAt(i) == ascii[i];
+				}
+			}
+			else {
+				// The encoding is not supported.
+				is_compatible = false;
+			}
+			ascii_compatibility.put(encoding, is_compatible);
+		}
+		return is_compatible;
+	}
+}
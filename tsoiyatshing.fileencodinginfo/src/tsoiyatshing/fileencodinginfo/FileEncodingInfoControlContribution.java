@@ -1,5 +1,7 @@
 package tsoiyatshing.fileencodinginfo;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import org.eclipse.jface.action.IContributionManager;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.StackLayout;
@@ -8,6 +10,7 @@ import org.eclipse.swt.events.MenuEvent;
 import org.eclipse.swt.events.SelectionAdapter;
 import org.eclipse.swt.events.SelectionEvent;
 import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.Composite;
@@ -18,7 +21,6 @@ import org.eclipse.swt.widgets.Menu;
 import org.eclipse.swt.widgets.MenuItem;
 import org.eclipse.ui.menus.WorkbenchWindowControlContribution;
 
-import com.ibm.icu.text.CharsetMatch;
 
 /**
  * Show the file encoding information for the active document.
@@ -30,14 +32,27 @@ public class FileEncodingInfoControlContribution extends
 		WorkbenchWindowControlContribution implements IActiveDocumentAgentCallback {
 
 	// The agent is responsible for monitoring the encoding information of the active document.
-	private ActiveDocumentAgent agent = new ActiveDocumentAgent(this);
+	// It is shared by the contributions of the same window, see ActiveDocumentAgentRegistry.
+	private ActiveDocumentAgent agent;
+	
+	// The registry which the agent is acquired from, or null if not acquired.
+	private ActiveDocumentAgentRegistry agent_registry;
 	
 	private Composite comp;
 	private Label file_encoding_label;
 	private Color default_background;
 	private Menu file_encoding_popup_menu;
 	private String current_file_encoding;
-	private CharsetMatch[] charset_match_list;
+	private DetectedEncodings detected_encodings;
+	private DetectionResult detection_result;
+	private boolean is_sampled;
+	private int unencodable_count;
+	
+	// The maximum number of detected encodings checked for the unsaved characters when showing the popup menu.
+	private static final int MAX_LIVE_CHECKED_ENCODINGS = 3;
+	
+	// Indicate whether a refresh is scheduled, so that the refresh requests can be coalesced.
+	private final AtomicBoolean is_refresh_scheduled = new AtomicBoolean(false);
 	
 	public FileEncodingInfoControlContribution() {
 	}
@@ -51,8 +66,10 @@ public class FileEncodingInfoControlContribution extends
 	 */
 	@Override
 	protected Control createControl(Composite parent) {
-		// Start the agent, if needed.
-		agent.start(getWorkbenchWindow());
+		// Acquire the agent of the window, if needed.
+		if (agent_registry == null) {
+			acquireAgent();
+		}
 		
 		// Use StackLayout to stack labels.
 		comp = new Composite(parent, SWT.NONE);
@@ -79,34 +96,60 @@ public class FileEncodingInfoControlContribution extends
 	}
 
 	private void fillComp() {
+		long start_time = System.nanoTime();
+		fillCompPrivately();
+		DetectionStatistics.getDefault().recordRefresh(System.nanoTime() - start_time);
+	}
+
+	private void fillCompPrivately() {
 		// Get the encoding information of the active document.
 		current_file_encoding = agent.getEncoding();
-		charset_match_list = agent.getDetectedEncodings();
-		String detected_file_encoding = charset_match_list == null ? null : charset_match_list[0].getName();
+		// The detected encodings are outdated during detection.
+		boolean is_detecting = agent.isDetecting();
+		detection_result = is_detecting ? null : agent.getDetectionResult();
+		detected_encodings = detection_result == null ? null : detection_result.getDetectedEncodings();
+		// Only a sample of a large document may be checked.
+		is_sampled = detection_result != null && detection_result.isSampled();
+		String detected_file_encoding = detected_encodings == null ? null : detected_encodings.getName(0);
 		int current_file_encoding_confidence = agent.getEncodingConfidence();
-		int detected_file_encoding_confidence = charset_match_list == null ? 0 : charset_match_list[0].getConfidence();
+		int detected_file_encoding_confidence = detected_encodings == null ? 0 : detected_encodings.getConfidence(0);
+		// The detection checks the saved document, so check the unsaved characters for a dirty document.
+		unencodable_count = agent.isDocumentDirty() ? Math.max(0, agent.getUnencodableCharacterCount(current_file_encoding)) : 0;
 		
 		// Set the label.
 		Color file_encoding_label_background_color = default_background;
 		if (current_file_encoding != null) {
-			if (charset_match_list == null) {
+			if (is_detecting) {
+				// The detected encodings will be available later.
+				file_encoding_label.setText(String.format("%s(detecting...)", current_file_encoding));
+			}
+			else if (detection_result != null && !detection_result.isChecked()) {
+				// Reading the document timed out.
+				file_encoding_label.setText(String.format("%s(remote: not checked)", current_file_encoding));
+			}
+			else if (detected_encodings == null) {
 				// No detected encoding.
 				file_encoding_label.setText(String.format("%s(undetected)", current_file_encoding));
 			}
 			else if (EncodingUtil.areCharsetsEqual(current_file_encoding, detected_file_encoding)) {
-				file_encoding_label.setText(String.format("%s(%d%%)", current_file_encoding, current_file_encoding_confidence));
+				file_encoding_label.setText(String.format("%s(%s)", current_file_encoding, formatConfidence(current_file_encoding_confidence)));
 				// Show the label in red color if the confidence of the current file encoding is zero.
 				if (current_file_encoding_confidence == 0) {
 					file_encoding_label_background_color = file_encoding_label.getDisplay().getSystemColor(SWT.COLOR_RED);
 				}
 			}
 			else {
-				file_encoding_label.setText(String.format("%s(%d%%) => %s(%d%%)?", current_file_encoding, current_file_encoding_confidence, detected_file_encoding, detected_file_encoding_confidence));
+				file_encoding_label.setText(String.format("%s(%s) => %s(%s)?", current_file_encoding, formatConfidence(current_file_encoding_confidence), detected_file_encoding, formatConfidence(detected_file_encoding_confidence)));
 				// Show the label in red color if the confidence of the current file encoding is zero or if the confidence of the detected file encoding is high.
 				if (current_file_encoding_confidence == 0 || detected_file_encoding_confidence >= 50) {
 					file_encoding_label_background_color = file_encoding_label.getDisplay().getSystemColor(SWT.COLOR_RED);
 				}
 			}
+			// Show the label in red color immediately if a typed character cannot be encoded.
+			if (unencodable_count > 0) {
+				file_encoding_label.setText(String.format("%s !%d", file_encoding_label.getText(), unencodable_count));
+				file_encoding_label_background_color = file_encoding_label.getDisplay().getSystemColor(SWT.COLOR_RED);
+			}
 		}
 		else {
 			file_encoding_label.setText("");
@@ -114,14 +157,19 @@ public class FileEncodingInfoControlContribution extends
 		file_encoding_label.setBackground(file_encoding_label_background_color);
 		
 		// Set the popup menu for changing file encoding.
-		if (charset_match_list != null) {
+		if (detected_encodings != null) {
 			boolean isListenerAdded = true;
 			if (file_encoding_popup_menu == null) {
 				file_encoding_popup_menu = new Menu(file_encoding_label);
 				isListenerAdded = false;
 			}
 			file_encoding_label.setMenu(file_encoding_popup_menu);
-			file_encoding_label.setToolTipText(String.format("Right-click to change the encoding of '%s'", agent.getName()));
+			if (is_sampled) {
+				file_encoding_label.setToolTipText(String.format("Right-click to change the encoding of '%s'\n(~: only a sample of the file is checked)", agent.getName()));
+			}
+			else {
+				file_encoding_label.setToolTipText(String.format("Right-click to change the encoding of '%s'", agent.getName()));
+			}
 			if (!isListenerAdded) {
 				// Add the menu items dynamically.
 				file_encoding_popup_menu.addMenuListener(new MenuAdapter() {
@@ -135,13 +183,31 @@ public class FileEncodingInfoControlContribution extends
 							MenuItem item = new MenuItem(file_encoding_popup_menu, SWT.NONE);
 							item.setText("Please save the document first.");
 						}
+						// Add menu items for going to the lines found when checking the saved document, above the encodings.
+						if (addLineMenuItems()) {
+							new MenuItem(file_encoding_popup_menu, SWT.SEPARATOR);
+						}
 						// Add menu items, the charset with the highest confidence is in the bottom.
-						for (int i = charset_match_list.length - 1; i >= 0; i--) {
-							final CharsetMatch match = charset_match_list[i];
+						for (int i = detected_encodings.size() - 1; i >= 0; i--) {
+							final String name = detected_encodings.getName(i);
 							final MenuItem item = new MenuItem(file_encoding_popup_menu, SWT.RADIO);
-							item.setText(match.getName() + "\t(Confidence:" + match.getConfidence() + "%)");
+							String text = name + "\t(Confidence:" + detected_encodings.getConfidence(i) + "%";
+							// Show whether the saved document can be decoded, as checked with the encoding setting.
+							long error_offset = detection_result.getCandidateErrorOffset(i);
+							if (error_offset == DetectionResult.NO_ERROR) {
+								text += is_sampled ? ", Decodable~" : ", Decodable";
+							}
+							else if (error_offset >= 0) {
+								text += ", Error at byte " + error_offset;
+							}
+							// Check the unsaved characters only for the encodings with the highest confidences, as the whole document may be checked for each encoding.
+							int unencodable_count = is_document_dirty && i < MAX_LIVE_CHECKED_ENCODINGS ? FileEncodingInfoControlContribution.this.agent.getUnencodableCharacterCount(name) : -1;
+							if (unencodable_count >= 0) {
+								text += ", Unencodable:" + unencodable_count;
+							}
+							item.setText(text + ")");
 							item.setEnabled(!is_document_dirty);
-							if (EncodingUtil.areCharsetsEqual(match.getName(), current_file_encoding)) {
+							if (EncodingUtil.areCharsetsEqual(name, current_file_encoding)) {
 								item.setSelection(true);
 							}
 							item.addSelectionListener(new SelectionAdapter() {
@@ -149,7 +215,7 @@ public class FileEncodingInfoControlContribution extends
 								public void widgetSelected(SelectionEvent e) {
 									if (item.getSelection()) {
 										// Set the charset.
-										FileEncodingInfoControlContribution.this.agent.setEncoding(match.getName());
+										FileEncodingInfoControlContribution.this.agent.setEncoding(name);
 									}
 								}
 							});
@@ -159,14 +225,147 @@ public class FileEncodingInfoControlContribution extends
 			}
 		} else {
 			file_encoding_label.setMenu(null);
-			file_encoding_label.setToolTipText(null);
+			if (detection_result != null && !detection_result.isChecked()) {
+				file_encoding_label.setToolTipText(String.format("Reading '%s' timed out, it will be checked again when activated", agent.getName()));
+			}
+			else {
+				file_encoding_label.setToolTipText(null);
+			}
+		}
+		
+		DocumentStructure structure = detection_result == null ? null : detection_result.getStructure();
+		if (structure != null) {
+			String tool_tip_text = file_encoding_label.getToolTipText();
+			String structure_text = formatStructure(structure);
+			if (structure_text.length() > 0) {
+				file_encoding_label.setToolTipText((tool_tip_text == null ? "" : tool_tip_text + "\n") + structure_text);
+			}
+		}
+		
+		if (detection_result != null && detection_result.getErrorOffset() >= 0) {
+			String tool_tip_text = file_encoding_label.getToolTipText();
+			String error_text = String.format("The saved file cannot be decoded in %s from byte %d", current_file_encoding, detection_result.getErrorOffset());
+			if (structure != null && structure.getErrorLine() > 0) {
+				error_text += String.format(" (line %d)", structure.getErrorLine());
+			}
+			file_encoding_label.setToolTipText(error_text + (tool_tip_text == null ? "" : "\n" + tool_tip_text));
+		}
+		
+		if (unencodable_count > 0) {
+			String tool_tip_text = file_encoding_label.getToolTipText();
+			file_encoding_label.setToolTipText(String.format("%d unsaved characters cannot be encoded in %s", unencodable_count, current_file_encoding) + (tool_tip_text == null ? "" : "\n" + tool_tip_text));
+		}
+	}
+
+	/**
+	 * Add a menu item for going to a line of the active document.
+	 */
+	private void addLineMenuItem(String text, final long line) {
+		MenuItem item = new MenuItem(file_encoding_popup_menu, SWT.PUSH);
+		item.setText(String.format("%s\t(Line %d)", text, line));
+		item.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				agent.revealLine(line);
+			}
+		});
+	}
+
+	/**
+	 * Add the menu items for going to the first undecodable byte and to the regions where the encoding switches.
+	 * The lines are not known for the regions in the middle of a sampled document.
+	 * @return true if any menu item is added.
+	 */
+	private boolean addLineMenuItems() {
+		DocumentStructure structure = detection_result == null ? null : detection_result.getStructure();
+		if (structure == null) return false;
+		
+		boolean is_added = false;
+		if (structure.getErrorLine() > 0) {
+			addLineMenuItem(String.format("Go to the first byte which cannot be decoded in %s", current_file_encoding), structure.getErrorLine());
+			is_added = true;
+		}
+		if (structure.isMixed()) {
+			for (int i = 1; i < structure.getRegionCount(); i++) {
+				if (structure.getRegionLine(i) > 0) {
+					addLineMenuItem(structure.isRegionUtf8(i) ? "Go to the UTF-8 region" : "Go to the non-UTF-8 region", structure.getRegionLine(i));
+					is_added = true;
+				}
+			}
+		}
+		return is_added;
+	}
+
+	/**
+	 * Format the structure of the document for the tooltip, prefixed by ~ if only a part of the document is scanned.
+	 * @return the lines, or an empty string if there is nothing notable.
+	 */
+	private static String formatStructure(DocumentStructure structure) {
+		StringBuilder text = new StringBuilder();
+		String prefix = structure.isComplete() ? "" : "~";
+		if (structure.getBom() != null) {
+			text.append(String.format("BOM: %s\n", structure.getBom()));
+		}
+		if (structure.getLfCount() >= 0) {
+			StringBuilder line_endings = new StringBuilder();
+			if (structure.getLfCount() > 0) line_endings.append(String.format(", LF:%s%d", prefix, structure.getLfCount()));
+			if (structure.getCrlfCount() > 0) line_endings.append(String.format(", CRLF:%s%d", prefix, structure.getCrlfCount()));
+			if (structure.getCrCount() > 0) line_endings.append(String.format(", CR:%s%d", prefix, structure.getCrCount()));
+			if (line_endings.length() > 0) {
+				text.append(String.format("Line endings%s: %s\n", structure.isLineEndingMixed() ? " (mixed)" : "", line_endings.substring(2)));
+			}
+		}
+		if (structure.isMixed()) {
+			text.append("The encoding switches between UTF-8 and another encoding:\n");
+			for (int i = 0; i < structure.getRegionCount(); i++) {
+				String name = structure.isRegionUtf8(i) ? "UTF-8" : "Non-UTF-8";
+				if (structure.getRegionLine(i) > 0) {
+					text.append(String.format("  %s from byte %d (line %d)\n", name, structure.getRegionOffset(i), structure.getRegionLine(i)));
+				}
+				else {
+					text.append(String.format("  %s from byte %d\n", name, structure.getRegionOffset(i)));
+				}
+			}
+			if (structure.isRegionTruncated()) {
+				text.append("  ...\n");
+			}
+		}
+		// Remove the last line break.
+		return text.length() == 0 ? "" : text.substring(0, text.length() - 1);
+	}
+
+	/**
+	 * Format a confidence for the label, prefixed by ~ if only a sample of the document is checked.
+	 */
+	private String formatConfidence(int confidence) {
+		return String.format(is_sampled ? "~%d%%" : "%d%%", confidence);
+	}
+
+	/**
+	 * Acquire the shared agent of the window, or create an agent of its own if the plug-in is stopped.
+	 */
+	private void acquireAgent() {
+		Activator activator = Activator.getDefault();
+		agent_registry = activator == null ? null : activator.getAgentRegistry();
+		if (agent_registry != null) {
+			agent = agent_registry.acquire(getWorkbenchWindow(), this);
+		}
+		else if (agent == null) {
+			agent = new ActiveDocumentAgent(this);
+			agent.start(getWorkbenchWindow());
 		}
 	}
 
 	@Override
 	public void dispose() {
-		// Stop the agent.
-		agent.stop();
+		// Release the shared agent, which is stopped when the last contribution of the window releases it.
+		if (agent_registry != null) {
+			agent_registry.release(getWorkbenchWindow(), this);
+			agent_registry = null;
+		}
+		else if (agent != null) {
+			agent.stop();
+		}
 		
 		super.dispose();
 	}
@@ -180,20 +379,59 @@ public class FileEncodingInfoControlContribution extends
 	/**
 	 * Update the encoding information in the label.
 	 * Like after the user switches to another editor.
+	 * Multiple calls within the refresh interval are coalesced into one refresh.
 	 */
 	public void encodingInfoChanged() {
-		// Cannot make resize work, need to call createControl() again.
+		// A refresh is scheduled already, which will show the latest encoding information.
+		if (!is_refresh_scheduled.compareAndSet(false, true)) return;
+		
 		// Do update in the UI thread.
-		Display.getDefault().asyncExec(new Runnable() {
+		final Display display = Display.getDefault();
+		display.asyncExec(new Runnable() {
 			@Override
 			public void run() {
-				IContributionManager manager = getParent();
-				if (manager != null) {
-					manager.update(true);
-				} else if (!comp.isDisposed()) {
-					fillComp();
+				int refresh_interval = Activator.getDefault() == null ? 0 : Activator.getDefault().getPreferenceStore().getInt(PreferenceConstants.REFRESH_INTERVAL);
+				if (refresh_interval > 0) {
+					display.timerExec(refresh_interval, new Runnable() {
+						@Override
+						public void run() {
+							refresh();
+						}
+					});
+				}
+				else {
+					refresh();
 				}
 			}
 		});
 	}
+
+	/**
+	 * Show the latest encoding information, run in the UI thread.
+	 * The label is updated in place if the text fits, otherwise the control is created again.
+	 */
+	private void refresh() {
+		// The encoding information changed after this point will be shown by another refresh.
+		is_refresh_scheduled.set(false);
+		
+		IContributionManager manager = getParent();
+		if (comp != null && !comp.isDisposed()) {
+			Point old_size = comp.getSize();
+			fillComp();
+			if (manager == null) {
+				// The invisible label reserves space for the visible label already.
+				return;
+			}
+			
+			// Cannot make resize work, need to call createControl() again if the text does not fit, or leaves too much space.
+			Point new_size = comp.computeSize(SWT.DEFAULT, SWT.DEFAULT, true);
+			if (new_size.x <= old_size.x && new_size.x >= old_size.x * 3 / 4 && new_size.y <= old_size.y) {
+				comp.layout(true, true);
+				return;
+			}
+		}
+		if (manager != null) {
+			manager.update(true);
+		}
+	}
 }
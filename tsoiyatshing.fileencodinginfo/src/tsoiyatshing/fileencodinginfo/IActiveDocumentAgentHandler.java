@@ -1,11 +1,12 @@
 package tsoiyatshing.fileencodinginfo;
 
-import org.eclipse.core.resources.IResourceChangeEvent;
+import java.util.Set;
+
+import org.eclipse.core.runtime.IPath;
 import org.eclipse.jface.viewers.ISelection;
 import org.eclipse.ui.IEditorPart;
 import org.eclipse.ui.IWorkbenchPart;
 
-import com.ibm.icu.text.CharsetMatch;
 
 /**
  * The interface for the handlers used by ActiveDocumentAgent.
@@ -19,13 +20,46 @@ interface IActiveDocumentAgentHandler {
 	 */
 	public IEditorPart getEditor();
 	
+	/**
+	 * Called by ActiveDocumentAgent when the editor becomes the active editor.
+	 * The handler may be activated again after deactivated, so the encoding information should be updated if needed.
+	 */
+	public void activate();
+	
+	/**
+	 * Called by ActiveDocumentAgent when the editor is no longer the active editor, like cancelling the running detection.
+	 * The encoding information should be kept for reactivation.
+	 */
+	public void deactivate();
+	
+	/**
+	 * Called by ActiveDocumentAgent when the editor is opened in background.
+	 * The handler may obtain the encoding information in advance, so that it is ready when the handler is activated.
+	 */
+	public void prefetch();
+	
+	/**
+	 * Release the resources of this handler.
+	 * Called by ActiveDocumentAgent when the handler is no longer used, like after the editor is closed.
+	 */
+	public void dispose();
+	
+	/**
+	 * Called by ActiveDocumentAgent in the UI thread after some workspace resources are changed, e.g. modified externally.
+	 * The changes are batched, the handler should update the encoding information if its document is one of them.
+	 * @param changed_paths The full paths of the resources whose content or encoding setting is changed.
+	 */
+	public void resourcesChanged(Set<IPath> changed_paths);
+	
 	// Methods corresponding to those in ActiveDocumentAgent.
-	public CharsetMatch[] getDetectedEncodings();
+	public DetectedEncodings getDetectedEncodings();
+	public DetectionResult getDetectionResult();
 	public String getEncoding();
 	public int getEncodingConfidence();
 	public String getName();
+	public int getUnencodableCharacterCount(String encoding);
+	public boolean isDetecting();
 	public void propertyChanged(Object source, int propId);
-	public void resourceChanged(IResourceChangeEvent event);
 	public void selectionChanged(IWorkbenchPart part, ISelection selection);
 	public void setEncoding(String encoding);
 }
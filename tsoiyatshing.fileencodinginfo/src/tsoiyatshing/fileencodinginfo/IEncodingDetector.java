@@ -0,0 +1,19 @@
+package tsoiyatshing.fileencodinginfo;
+
+/**
+ * A stage of the encoding detection, contributed by the extension point tsoiyatshing.fileencodinginfo.detectors.
+ * The detectors are tried in order until one of them returns a result, ICU is the last detector.
+ * The detectors may be called by several threads at the same time.
+ * @author Tsoi Yat Shing
+ *
+ */
+public interface IEncodingDetector {
+	/**
+	 * Detect the possible encodings of some data, e.g. the beginning of a document.
+	 * @param data The data, should not be modified.
+	 * @param length The length of the data.
+	 * @param encoding The encoding setting of the document, may be null, a hint for data which can be decoded by several encodings equally well, like pure ASCII.
+	 * @return the detected encodings, or null if the detector cannot decide, so that the next detector is tried.
+	 */
+	public DetectedEncodings detect(byte[] data, int length, String encoding);
+}
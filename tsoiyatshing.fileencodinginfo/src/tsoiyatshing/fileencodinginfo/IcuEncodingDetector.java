@@ -0,0 +1,22 @@
+package tsoiyatshing.fileencodinginfo;
+
+import java.util.Arrays;
+
+import com.ibm.icu.text.CharsetDetector;
+
+/**
+ * Detect the encoding using ICU CharsetDetector, which runs all its recognizers.
+ * It is the last detector, as it is slower but always gives an answer for non-empty data.
+ * @author Tsoi Yat Shing
+ *
+ */
+class IcuEncodingDetector implements IEncodingDetector {
+
+	@Override
+	public DetectedEncodings detect(byte[] data, int length, String encoding) {
+		CharsetDetector detector = new CharsetDetector();
+		detector.setText(length == data.length ? data : Arrays.copyOf(data, length));
+		return DetectedEncodings.fromCharsetMatches(detector.detectAll());
+	}
+
+}
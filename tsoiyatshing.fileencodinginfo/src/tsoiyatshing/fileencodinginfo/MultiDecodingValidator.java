@@ -0,0 +1,169 @@
+package tsoiyatshing.fileencodinginfo;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.eclipse.core.runtime.OperationCanceledException;
+
+/**
+ * Check whether some data can be decoded by several encodings, with one DecodingValidator for each encoding.
+ * The data is read once and shared by the validators, a large chunk is decoded by the validators concurrently if an executor is given.
+ * @author Tsoi Yat Shing
+ *
+ */
+class MultiDecodingValidator {
+	// A smaller chunk is decoded in the calling thread, as handing it over costs more than decoding it.
+	private static final int MIN_PARALLEL_CHUNK_SIZE = 64 * 1024;
+
+	// The validators, null for the encodings which are not supported.
+	private final DecodingValidator[] validators;
+
+	// Run the validators concurrently, or null to run them in the calling thread.
+	private final Executor executor;
+
+	/**
+	 * @param encodings The encodings to check.
+	 * @param executor Run the validators concurrently, or null to run them in the calling thread.
+	 */
+	public MultiDecodingValidator(String[] encodings, Executor executor) {
+		validators = new DecodingValidator[encodings.length];
+		for (int i = 0; i < encodings.length; i++) {
+			try {
+				validators[i] = encodings[i] == null ? null : new DecodingValidator(encodings[i]);
+			} catch (IllegalArgumentException e) {
+				// The encoding is not supported, so it is not checked.
+			}
+		}
+		this.executor = executor;
+	}
+
+	/**
+	 * Provide the last chunk of the data.
+	 */
+	public void finish() {
+		for (DecodingValidator validator: validators) {
+			if (validator != null && !validator.isFailed()) {
+				validator.finish();
+			}
+		}
+	}
+
+	/**
+	 * Get the offset of the first byte which cannot be decoded by an encoding.
+	 * @param index The index of the encoding.
+	 * @return the offset, DetectionResult.NO_ERROR if the data provided so far can be decoded, or DetectionResult.NOT_CHECKED if the encoding is not supported.
+	 */
+	public long getErrorOffset(int index) {
+		DecodingValidator validator = validators[index];
+		return validator == null ? DetectionResult.NOT_CHECKED : validator.getErrorOffset();
+	}
+
+	/**
+	 * Check whether the data provided so far can be decoded by an encoding.
+	 * @param index The index of the encoding.
+	 * @return false if the data cannot be decoded or the encoding is not supported.
+	 */
+	public boolean isDecodable(int index) {
+		return validators[index] != null && !validators[index].isFailed();
+	}
+
+	/**
+	 * Run a task for each validator which has not failed, concurrently if the chunk is large.
+	 * The last task is run in the calling thread, the method returns after all the tasks are done.
+	 * @return false if all the validators have failed, no more data is needed.
+	 * @throws OperationCanceledException if the calling thread is interrupted, e.g. the detection is cancelled, then the validators should be discarded.
+	 */
+	private boolean run(final ValidatorTask task, int chunk_size) {
+		int count = 0;
+		for (DecodingValidator validator: validators) {
+			if (validator != null && !validator.isFailed()) count++;
+		}
+		if (count == 0) return false;
+		
+		if (executor == null || count == 1 || chunk_size < MIN_PARALLEL_CHUNK_SIZE) {
+			for (DecodingValidator validator: validators) {
+				if (validator != null && !validator.isFailed()) task.run(validator);
+			}
+		}
+		else {
+			final CountDownLatch latch = new CountDownLatch(count - 1);
+			DecodingValidator last_validator = null;
+			for (final DecodingValidator validator: validators) {
+				if (validator == null || validator.isFailed()) continue;
+				if (last_validator != null) {
+					final DecodingValidator submitted_validator = last_validator;
+					Runnable runnable = new Runnable() {
+						@Override
+						public void run() {
+							try {
+								task.run(submitted_validator);
+							}
+							finally {
+								latch.countDown();
+							}
+						}
+					};
+					try {
+						executor.execute(runnable);
+					} catch (RejectedExecutionException e) {
+						// The executor is shut down.
+						runnable.run();
+					}
+				}
+				last_validator = validator;
+			}
+			task.run(last_validator);
+			
+			try {
+				latch.await();
+			} catch (InterruptedException e) {
+				// The tasks may still be using the validators, so the result of the detection is incomplete.
+				Thread.currentThread().interrupt();
+				throw new OperationCanceledException();
+			}
+		}
+		
+		for (DecodingValidator validator: validators) {
+			if (validator != null && !validator.isFailed()) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Provide a chunk of the data.
+	 * @return false if all the validators have failed, no more data is needed.
+	 * @throws OperationCanceledException if the calling thread is interrupted.
+	 */
+	public boolean update(final byte[] data, final int offset, final int length) {
+		return run(new ValidatorTask() {
+			@Override
+			public void run(DecodingValidator validator) {
+				validator.update(data, offset, length);
+			}
+		}, length);
+	}
+
+	/**
+	 * Provide a chunk of the data, which is decoded directly by each validator.
+	 * @param data The data, the position of the buffer is not changed.
+	 * @return false if all the validators have failed, no more data is needed.
+	 * @throws OperationCanceledException if the calling thread is interrupted.
+	 */
+	public boolean update(final ByteBuffer data) {
+		return run(new ValidatorTask() {
+			@Override
+			public void run(DecodingValidator validator) {
+				validator.update(data.duplicate());
+			}
+		}, data.remaining());
+	}
+
+	/**
+	 * A task run for each validator.
+	 */
+	private interface ValidatorTask {
+		void run(DecodingValidator validator);
+	}
+}
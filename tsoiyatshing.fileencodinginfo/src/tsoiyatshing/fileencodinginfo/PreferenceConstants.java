@@ -0,0 +1,34 @@
+package tsoiyatshing.fileencodinginfo;
+
+/**
+ * Constant definitions for plug-in preferences.
+ * The preferences can be customized by plugin_customization.ini, e.g. tsoiyatshing.fileencodinginfo/sampleSize=1048576.
+ * @author Tsoi Yat Shing
+ *
+ */
+class PreferenceConstants {
+	// The maximum number of bytes of a document to check, 0 means checking the whole document.
+	public static final String SAMPLE_SIZE = "sampleSize";
+
+	// Whether to check the whole document in background after checking a sample of the document.
+	public static final String FULL_VERIFY = "fullVerify";
+
+	// The minimum interval in milliseconds between refreshes of the label, 0 means refreshing in the next UI event loop.
+	public static final String REFRESH_INTERVAL = "refreshInterval";
+
+	// The maximum number of editors opened in background waiting for prefetching, 0 means disabling prefetching.
+	public static final String PREFETCH_QUEUE_DEPTH = "prefetchQueueDepth";
+
+	// The maximum number of editors opened in background being prefetched at the same time.
+	public static final String PREFETCH_THREADS = "prefetchThreads";
+
+	// Whether to check whether the unsaved characters of the active editor can be encoded, while the document is being edited.
+	public static final String LIVE_CHECK = "liveCheck";
+
+	// The timeouts in milliseconds for reading the documents in file stores, as comma-separated scheme=timeout pairs, e.g. sftp=5000,*=10000.
+	// The scheme * matches the schemes not listed except the local file system, 0 means no timeout.
+	public static final String REMOTE_TIMEOUTS = "remoteTimeouts";
+
+	// The maximum number of bytes of a document to check, if the document is read with a timeout.
+	public static final String REMOTE_SAMPLE_SIZE = "remoteSampleSize";
+}
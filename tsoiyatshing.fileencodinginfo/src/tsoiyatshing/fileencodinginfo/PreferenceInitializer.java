@@ -0,0 +1,26 @@
+package tsoiyatshing.fileencodinginfo;
+
+import org.eclipse.core.runtime.preferences.AbstractPreferenceInitializer;
+import org.eclipse.jface.preference.IPreferenceStore;
+
+/**
+ * Initialize the default values of the plug-in preferences.
+ * @author Tsoi Yat Shing
+ *
+ */
+public class PreferenceInitializer extends AbstractPreferenceInitializer {
+
+	@Override
+	public void initializeDefaultPreferences() {
+		IPreferenceStore store = Activator.getDefault().getPreferenceStore();
+		store.setDefault(PreferenceConstants.SAMPLE_SIZE, 4 * 1024 * 1024);
+		store.setDefault(PreferenceConstants.FULL_VERIFY, true);
+		store.setDefault(PreferenceConstants.REFRESH_INTERVAL, 50);
+		store.setDefault(PreferenceConstants.PREFETCH_QUEUE_DEPTH, 32);
+		store.setDefault(PreferenceConstants.PREFETCH_THREADS, 1);
+		store.setDefault(PreferenceConstants.LIVE_CHECK, true);
+		store.setDefault(PreferenceConstants.REMOTE_TIMEOUTS, "*=10000");
+		store.setDefault(PreferenceConstants.REMOTE_SAMPLE_SIZE, 256 * 1024);
+	}
+
+}
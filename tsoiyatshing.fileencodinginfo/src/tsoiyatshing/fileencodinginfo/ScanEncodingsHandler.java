@@ -0,0 +1,93 @@
+package tsoiyatshing.fileencodinginfo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.core.commands.AbstractHandler;
+import org.eclipse.core.commands.ExecutionEvent;
+import org.eclipse.core.commands.ExecutionException;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.IAdaptable;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
+import org.eclipse.core.runtime.jobs.JobChangeAdapter;
+import org.eclipse.jface.dialogs.ErrorDialog;
+import org.eclipse.jface.viewers.ISelection;
+import org.eclipse.jface.viewers.IStructuredSelection;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.ui.IWorkbenchPage;
+import org.eclipse.ui.IWorkbenchWindow;
+import org.eclipse.ui.PartInitException;
+import org.eclipse.ui.handlers.HandlerUtil;
+
+/**
+ * Scan the selected resources (or the whole workspace) for files whose encoding settings may be wrong.
+ * The scan is run as a job, the results are shown in EncodingScanView.
+ * @author Tsoi Yat Shing
+ *
+ */
+public class ScanEncodingsHandler extends AbstractHandler {
+
+	@Override
+	public Object execute(ExecutionEvent event) throws ExecutionException {
+		final IWorkbenchWindow window = HandlerUtil.getActiveWorkbenchWindowChecked(event);
+		
+		List<IResource> resources = getSelectedResources(HandlerUtil.getCurrentSelection(event));
+		if (resources.isEmpty()) {
+			resources.add(ResourcesPlugin.getWorkspace().getRoot());
+		}
+		
+		final EncodingScanJob job = new EncodingScanJob(resources.toArray(new IResource[resources.size()]));
+		job.addJobChangeListener(new JobChangeAdapter() {
+			@Override
+			public void done(final IJobChangeEvent event) {
+				final int severity = event.getResult().getSeverity();
+				if (severity != IStatus.OK && severity != IStatus.CANCEL) return;
+				
+				Display.getDefault().asyncExec(new Runnable() {
+					@Override
+					public void run() {
+						IWorkbenchPage page = window.getActivePage();
+						if (page == null) return;
+						try {
+							EncodingScanView view = (EncodingScanView) page.showView(EncodingScanView.ID);
+							view.setResults(job.getResults(), job.getScannedCount(), severity == IStatus.CANCEL);
+						} catch (PartInitException e) {
+							ErrorDialog.openError(window.getShell(), "Scan Encodings", "Cannot show the results.", e.getStatus());
+						}
+					}
+				});
+			}
+		});
+		job.schedule();
+		return null;
+	}
+
+	/**
+	 * Get the accessible resources selected, also used by ConvertEncodingsHandler.
+	 * @return the resources, may be empty.
+	 */
+	static List<IResource> getSelectedResources(ISelection selection) {
+		List<IResource> resources = new ArrayList<IResource>();
+		if (selection instanceof IStructuredSelection) {
+			for (Object element: ((IStructuredSelection) selection).toList()) {
+				IResource resource = null;
+				if (element instanceof IResource) {
+					resource = (IResource) element;
+				}
+				else if (element instanceof IAdaptable) {
+					// IAdaptable.getAdapter() is not generic before Eclipse 4.5.
+					Object adapter = ((IAdaptable) element).getAdapter(IResource.class);
+					if (adapter instanceof IResource) {
+						resource = (IResource) adapter;
+					}
+				}
+				if (resource != null && resource.isAccessible()) {
+					resources.add(resource);
+				}
+			}
+		}
+		return resources;
+	}
+}
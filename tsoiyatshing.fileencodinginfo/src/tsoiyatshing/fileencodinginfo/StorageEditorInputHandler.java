@@ -1,28 +1,27 @@
 package tsoiyatshing.fileencodinginfo;
 
+import java.io.File;
+import java.io.InputStream;
+
+import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IStorage;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.ui.IEditorPart;
 import org.eclipse.ui.IStorageEditorInput;
 
-import com.ibm.icu.text.CharsetMatch;
-
 /**
  * This handler handles IStorageEditorInput for ActiveDocumentAgent.
  * Assume that the ITextEditor supports IEncodingSupport too.
+ * The result is cached if the storage is a file, otherwise the storage (e.g. a revision from a repository) is detected once until the editor input is changed.
  * @author Tsoi Yat Shing
  *
  */
-class StorageEditorInputHandler extends EncodedDocumentHandler {
+class StorageEditorInputHandler extends DetectableDocumentHandler {
 
 	// The storage object associated with the editor.
 	private IStorage storage = null;
-	
-	// The confidence of the encoding.
-	private int encoding_confidence;
-	
-	// The detected encodings of the text file.
-	private CharsetMatch[] detected_encodings;
 
 	public StorageEditorInputHandler(IEditorPart part, IActiveDocumentAgentCallback callback) throws CoreException {
 		super(part, callback);
@@ -30,65 +29,32 @@ class StorageEditorInputHandler extends EncodedDocumentHandler {
 		if (!(part.getEditorInput() instanceof IStorageEditorInput)) throw new IllegalArgumentException("part must provide IStorageEditorInput.");
 		
 		storage = ((IStorageEditorInput) part.getEditorInput()).getStorage();
-		
-		updateEncodingInfoPrivately();
 	}
 
 	@Override
-	public CharsetMatch[] getDetectedEncodings() {
-		return detected_encodings;
+	protected String getCacheKey(IProgressMonitor monitor) throws CoreException {
+		// IAdaptable.getAdapter() is not generic before Eclipse 4.5.
+		Object file = storage instanceof IFile ? storage : storage.getAdapter(IFile.class);
+		if (file instanceof IFile) return WorkspaceTextFileHandler.getCacheKey((IFile) file);
+		
+		Object path = storage.getAdapter(IPath.class);
+		if (path instanceof IPath && ((IPath) path).isAbsolute()) {
+			File local_file = ((IPath) path).toFile();
+			if (local_file.isFile()) return DetectionCache.getKey(local_file.toURI(), local_file.lastModified(), local_file.length());
+		}
+		return null;
 	}
 
 	@Override
-	public int getEncodingConfidence() {
-		return encoding_confidence;
-	}
-
-	/**
-	 * Update the encoding information in member variables.
-	 * This method may be overrided, but should be called by the sub-class.
-	 * @return true if the encoding information is updated.
-	 */
-	protected boolean updateEncodingInfo() {
-		return super.updateEncodingInfo() | updateEncodingInfoPrivately();
+	protected InputStream getContents(IProgressMonitor monitor) throws CoreException {
+		return storage.getContents();
 	}
 
-	/**
-	 * Update the encoding information in private member variables.
-	 * @return true if the encoding information is updated.
-	 */
-	private boolean updateEncodingInfoPrivately() {
-		// Get the updated encoding setting.
-		String encoding = getEncoding();
-		
-		// Do detection.
-		CharsetMatch[] detected_encodings = null;
-		int encoding_confidence = 0;
-		
-		try {
-			detected_encodings = EncodingUtil.detectCharsets(storage.getContents());
-			encoding_confidence = EncodingUtil.getConfidence(detected_encodings, encoding);
-			
-			// Check whether the text can really be decoded by the encoding, and adjust the confidence.
-			boolean is_text_decodable = EncodingUtil.isDecodable(storage.getContents(), encoding);
-			if (!is_text_decodable) {
-				// CharsetDetector may not read all the input data, so the confidence may not be zero even if the text cannot be decoded.
-				encoding_confidence = 0;
-			}
-			else if (encoding_confidence == 0) {
-				// CharsetDetector does not support all encodings, so the confidence may be zero even if the text can be decoded.
-				encoding_confidence = 1;
-			}
-		} catch (CoreException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-		
-		this.detected_encodings = detected_encodings;
-		this.encoding_confidence = encoding_confidence;
-		
-		// Just assume that the encoding information is updated.
-		return true;
+	@Override
+	protected boolean isDocumentChangeable() {
+		// The content of a storage which is not a file does not change, a new handler is created if the editor input is changed.
+		Object file = storage instanceof IFile ? storage : storage.getAdapter(IFile.class);
+		return file instanceof IFile || storage.getAdapter(IPath.class) instanceof IPath;
 	}
 
 }
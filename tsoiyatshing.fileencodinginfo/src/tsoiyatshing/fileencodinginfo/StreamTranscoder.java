@@ -0,0 +1,145 @@
+package tsoiyatshing.fileencodinginfo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+
+/**
+ * Convert a stream from an encoding to another encoding, through a decoder and an encoder with fixed buffers.
+ * The memory used does not depend on the size of the stream, so large files need not be loaded.
+ * The conversion fails if a byte cannot be decoded or a character cannot be encoded, rather than replacing them.
+ * A BOM at the start of the input is dropped, as it marks the source encoding, and the encoder writes a BOM if the target encoding requires one (e.g. UTF-16).
+ * An instance is not thread-safe, but can be reused for several streams.
+ * @author Tsoi Yat Shing
+ *
+ */
+class StreamTranscoder {
+	// The size of the buffers.
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	// Decode the input streams, the errors are reported instead of replaced.
+	private final CharsetDecoder decoder;
+
+	// Encode the output streams, the errors are reported instead of replaced.
+	private final CharsetEncoder encoder;
+
+	// Hold the bytes read, including the bytes of an incomplete character left from the last read.
+	private final ByteBuffer in_buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+	// Hold the decoded characters not yet encoded.
+	private final CharBuffer char_buffer = CharBuffer.allocate(BUFFER_SIZE);
+
+	// Hold the encoded bytes not yet written.
+	private final ByteBuffer out_buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+	// The number of characters encoded in the current stream, for locating the error.
+	private long encoded_length;
+
+	// Indicate whether the first character of the current stream has been checked for a BOM.
+	private boolean is_bom_checked;
+
+	/**
+	 * @param source_encoding The encoding of the input streams.
+	 * @param target_encoding The encoding of the output streams.
+	 * @throws IllegalArgumentException if an encoding is not supported, or the target encoding cannot encode.
+	 */
+	public StreamTranscoder(String source_encoding, String target_encoding) {
+		Charset source = EncodingUtil.getCharset(source_encoding);
+		Charset target = EncodingUtil.getCharset(target_encoding);
+		if (source == null) throw new IllegalArgumentException("Encoding is not supported: " + source_encoding);
+		if (target == null || !target.canEncode()) throw new IllegalArgumentException("Encoding is not supported: " + target_encoding);
+		// Report malformed input and unmappable character by default.
+		decoder = source.newDecoder();
+		encoder = target.newEncoder();
+	}
+
+	/**
+	 * Encode the decoded characters, the encoded bytes are written when the output buffer is full.
+	 * @param end_of_input Whether all the characters have been decoded.
+	 */
+	private void encode(OutputStream out, boolean end_of_input) throws IOException {
+		char_buffer.flip();
+		try {
+			if (!is_bom_checked && char_buffer.hasRemaining()) {
+				if (char_buffer.get(char_buffer.position()) == '\uFEFF') {
+					char_buffer.get();
+					encoded_length++;
+				}
+				is_bom_checked = true;
+			}
+			for (;;) {
+				int start = char_buffer.position();
+				CoderResult result = encoder.encode(char_buffer, out_buffer, end_of_input);
+				encoded_length += char_buffer.position() - start;
+				if (result.isError()) throw new IOException(String.format("The character at %d cannot be encoded in %s", encoded_length, encoder.charset().name()));
+				if (!result.isOverflow()) break;
+				write(out);
+			}
+		} finally {
+			char_buffer.compact();
+		}
+	}
+
+	/**
+	 * Convert an input stream to an output stream, the streams are not closed.
+	 * @return the number of bytes read.
+	 * @throws IOException if the streams cannot be read or written, or a byte cannot be decoded or a character cannot be encoded, then the output is incomplete.
+	 */
+	public long transcode(InputStream in, OutputStream out) throws IOException {
+		decoder.reset();
+		encoder.reset();
+		in_buffer.clear();
+		char_buffer.clear();
+		out_buffer.clear();
+		encoded_length = 0;
+		is_bom_checked = false;
+
+		// The offset of the first byte in the input buffer.
+		long offset = 0;
+		boolean end_of_input = false;
+		while (!end_of_input) {
+			int len = in.read(in_buffer.array(), in_buffer.arrayOffset() + in_buffer.position(), in_buffer.remaining());
+			if (len < 0) {
+				end_of_input = true;
+			}
+			else {
+				in_buffer.position(in_buffer.position() + len);
+			}
+
+			in_buffer.flip();
+			for (;;) {
+				CoderResult result = decoder.decode(in_buffer, char_buffer, end_of_input);
+				if (result.isError()) throw new IOException(String.format("The byte at %d cannot be decoded in %s", offset + in_buffer.position(), decoder.charset().name()));
+				encode(out, false);
+				if (!result.isOverflow()) break;
+			}
+			// Keep the bytes of an incomplete character for the next read.
+			offset += in_buffer.position();
+			in_buffer.compact();
+		}
+
+		while (decoder.flush(char_buffer).isOverflow()) {
+			encode(out, false);
+		}
+		encode(out, true);
+		while (encoder.flush(out_buffer).isOverflow()) {
+			write(out);
+		}
+		write(out);
+		return offset;
+	}
+
+	/**
+	 * Write the encoded bytes.
+	 */
+	private void write(OutputStream out) throws IOException {
+		out.write(out_buffer.array(), out_buffer.arrayOffset(), out_buffer.position());
+		out_buffer.clear();
+	}
+}
@@ -0,0 +1,311 @@
+package tsoiyatshing.fileencodinginfo;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Find the structure of a document (see DocumentStructure) in the same pass as checking it for decoding, the data can be provided chunk by chunk.
+ * The line endings are searched 8 bytes at a time, and the lines with non-ASCII characters are validated by Utf8Validator.
+ * A multi-byte character split by two chunks is checked by the number of the continuation bytes only, so that the chunks need not be joined.
+ * @author Tsoi Yat Shing
+ *
+ */
+class StructureScanner {
+	// LF in each byte of a word.
+	private static final long LF_BYTES = 0x0A0A0A0A0A0A0A0AL;
+
+	// CR in each byte of a word.
+	private static final long CR_BYTES = 0x0D0D0D0D0D0D0D0DL;
+
+	// The maximum number of regions kept.
+	private static final int MAX_REGIONS = 8;
+
+	// The maximum number of continuation bytes skipped at the start of a chunk, for a character started in the last chunk.
+	private static final int MAX_CONTINUATION_LENGTH = 3;
+
+	// The encoding indicated by the BOM, or null.
+	private final String bom;
+
+	// Indicate whether the line endings are checked, false if the encoding is not compatible with ASCII.
+	private final boolean is_line_checked;
+
+	// The offset after the last byte scanned.
+	private long offset = 0;
+
+	// The current line, or -1 if not known after skipping some data.
+	private long line = 1;
+
+	// The offset of the start of the current line.
+	private long line_offset = 0;
+
+	// Indicate whether the last chunk ends with CR, which may be followed by LF in the next chunk.
+	private boolean is_cr_pending = false;
+
+	// Indicate whether the current line has non-ASCII characters.
+	private boolean is_line_non_ascii = false;
+
+	// Indicate whether the non-ASCII characters of the current line are UTF-8 so far.
+	private boolean is_line_utf8 = true;
+
+	// The number of continuation bytes which can be skipped at the start of the next chunk.
+	private int skippable_continuation_length = 0;
+
+	// The number of continuation bytes which should be at the start of the next chunk, for a character split by the chunks.
+	private int missing_continuation_length = 0;
+
+	// The number of LF line endings.
+	private long lf_count = 0;
+
+	// The number of CRLF line endings.
+	private long crlf_count = 0;
+
+	// The number of CR line endings.
+	private long cr_count = 0;
+
+	// The offsets of the first bytes of the regions found, see DocumentStructure.
+	private final long[] region_offsets = new long[MAX_REGIONS];
+
+	// The first lines of the regions found, or -1 if not known.
+	private final long[] region_lines = new long[MAX_REGIONS];
+
+	// Indicate whether the non-ASCII characters of each region found are UTF-8.
+	private final boolean[] region_utf8_flags = new boolean[MAX_REGIONS];
+
+	// The number of regions found.
+	private int region_count = 0;
+
+	// Indicate whether more regions are found than MAX_REGIONS.
+	private boolean is_region_truncated = false;
+
+	// The offset of the first byte which cannot be decoded by the encoding setting, or -1.
+	private long error_offset = -1;
+
+	// The line of error_offset, or -1 if not known.
+	private long error_line = -1;
+
+	// Indicate whether the whole document is scanned.
+	private boolean is_finished = false;
+
+	/**
+	 * @param encoding The encoding setting, may be null or not supported.
+	 * @param head The beginning of the document, for finding the BOM.
+	 * @param length The length of the head.
+	 */
+	public StructureScanner(String encoding, byte[] head, int length) {
+		bom = FastEncodingDetector.getBomEncoding(head, length);
+		// CR and LF are not single bytes in UTF-16 and UTF-32, the lines are checked if the encoding setting is not known.
+		is_line_checked = (bom == null || bom.equals("UTF-8")) && (encoding == null || EncodingUtil.getCharset(encoding) == null || FastEncodingDetector.isAsciiCompatible(encoding));
+	}
+
+	/**
+	 * Finish the current line, and start a new region if the encoding of its non-ASCII characters is different from the current region.
+	 * @param end_offset The offset of the line ending, or the end of the scanned data.
+	 */
+	private void closeLine(long end_offset) {
+		if (error_offset >= line_offset && error_offset <= end_offset && error_line < 0) {
+			error_line = line;
+		}
+		if (is_line_non_ascii && (region_count == 0 || region_utf8_flags[region_count - 1] != is_line_utf8)) {
+			if (region_count < MAX_REGIONS) {
+				// The first region starts at the start of the document, as the ASCII lines before it belong to any encoding.
+				region_offsets[region_count] = region_count == 0 ? 0 : line_offset;
+				region_lines[region_count] = region_count == 0 ? 1 : line;
+				region_utf8_flags[region_count] = is_line_utf8;
+				region_count++;
+			}
+			else {
+				is_region_truncated = true;
+			}
+		}
+		is_line_non_ascii = false;
+		is_line_utf8 = true;
+	}
+
+	/**
+	 * Get the structure of the data scanned, should be called once after all the data is provided.
+	 */
+	public DocumentStructure createStructure() {
+		if (missing_continuation_length > 0 && is_finished) {
+			// The document ends in the middle of a character.
+			is_line_utf8 = false;
+		}
+		closeLine(offset);
+		if (is_cr_pending) {
+			cr_count++;
+			is_cr_pending = false;
+		}
+		if (!is_line_checked) {
+			return new DocumentStructure(bom, -1, -1, -1, -1, new long[0], new long[0], new boolean[0], false, is_finished);
+		}
+		
+		long[] region_offsets = new long[region_count];
+		long[] region_lines = new long[region_count];
+		boolean[] region_utf8_flags = new boolean[region_count];
+		System.arraycopy(this.region_offsets, 0, region_offsets, 0, region_count);
+		System.arraycopy(this.region_lines, 0, region_lines, 0, region_count);
+		System.arraycopy(this.region_utf8_flags, 0, region_utf8_flags, 0, region_count);
+		return new DocumentStructure(bom, lf_count, crlf_count, cr_count, error_line, region_offsets, region_lines, region_utf8_flags, is_region_truncated, is_finished);
+	}
+
+	/**
+	 * Find the first CR or LF, 8 bytes at a time.
+	 * @return the index of CR or LF, or the limit.
+	 */
+	private static int findLineEnding(ByteBuffer data, int index, int limit) {
+		while (index + 8 <= limit) {
+			long word = data.getLong(index);
+			if (Utf8Validator.hasZeroByte(word ^ LF_BYTES) || Utf8Validator.hasZeroByte(word ^ CR_BYTES)) break;
+			index += 8;
+		}
+		while (index < limit) {
+			byte b = data.get(index);
+			if (b == '\n' || b == '\r') break;
+			index++;
+		}
+		return index;
+	}
+
+	/**
+	 * Indicate that the whole document has been provided.
+	 */
+	public void finish() {
+		is_finished = true;
+	}
+
+	/**
+	 * Check whether the line endings and the regions are scanned, which needs the whole document.
+	 * @return false if only the BOM is found, as the encoding is not compatible with ASCII.
+	 */
+	public boolean isLineChecked() {
+		return is_line_checked;
+	}
+
+	/**
+	 * Check the non-ASCII characters of a part of the current line.
+	 * @param is_chunk_end Whether the part ends at the end of the chunk, so the last character may be incomplete.
+	 */
+	private void scanLine(ByteBuffer data, int index, int limit, boolean is_chunk_end) {
+		int missing_length = missing_continuation_length;
+		int skippable_length = skippable_continuation_length;
+		missing_continuation_length = 0;
+		skippable_continuation_length = 0;
+		// The line is not UTF-8 already.
+		if (!is_line_utf8) return;
+
+		// Skip the continuation bytes of a character started in the last chunks.
+		for (; skippable_length > 0 && index < limit && (data.get(index) & 0xC0) == 0x80; skippable_length--) {
+			index++;
+			missing_length--;
+		}
+		if (index == limit && is_chunk_end) {
+			// The character may be completed by the next chunk, e.g. a chunk of 1 byte.
+			missing_continuation_length = Math.max(0, missing_length);
+			skippable_continuation_length = skippable_length;
+			return;
+		}
+		if (missing_length > 0) {
+			// The character is not completed, e.g. the next chunk starts with a line ending.
+			is_line_utf8 = false;
+			return;
+		}
+
+		index = Utf8Validator.validateAscii(data, index, limit);
+		if (index == limit) return;
+		is_line_non_ascii = true;
+
+		index = Utf8Validator.validateUtf8(data, index, limit);
+		if (index < limit) {
+			if (is_chunk_end && Utf8Validator.isIncomplete(data, index, limit)) {
+				missing_continuation_length = Utf8Validator.getMissingLength(data, index, limit);
+				skippable_continuation_length = missing_continuation_length;
+			}
+			else {
+				is_line_utf8 = false;
+			}
+		}
+	}
+
+	/**
+	 * Provide the offset of the first byte which cannot be decoded by the encoding setting, for finding its line.
+	 * Should be provided before the chunk containing the byte, i.e. after the chunk is checked for decoding but before it is scanned.
+	 * @param error_offset The offset, or a negative value if there is no error.
+	 */
+	public void setErrorOffset(long error_offset) {
+		if (error_offset >= 0 && this.error_offset < 0) {
+			this.error_offset = error_offset;
+		}
+	}
+
+	/**
+	 * Provide a chunk of the data.
+	 * @param data The data, the position and the limit are not changed.
+	 * @param data_offset The offset of the chunk in the document, if it is not after the last chunk, the lines are not known afterwards.
+	 */
+	public void update(ByteBuffer data, long data_offset) {
+		if (data_offset != offset) {
+			// Some data is skipped, e.g. only the head, the middle and the tail of the document are checked.
+			closeLine(offset);
+			if (is_cr_pending) {
+				cr_count++;
+				is_cr_pending = false;
+			}
+			offset = data_offset;
+			line_offset = data_offset;
+			line = -1;
+			// The character split by the skipped data is not known.
+			missing_continuation_length = 0;
+			skippable_continuation_length = MAX_CONTINUATION_LENGTH;
+		}
+		int index = data.position();
+		int limit = data.limit();
+		// The offset of the document at index 0 of the buffer.
+		long base = data_offset - index;
+		offset = base + limit;
+		if (!is_line_checked) return;
+
+		if (is_cr_pending && index < limit) {
+			if (data.get(index) == '\n') {
+				crlf_count++;
+				index++;
+				line_offset++;
+			}
+			else {
+				cr_count++;
+			}
+			is_cr_pending = false;
+		}
+		while (index < limit) {
+			int end = findLineEnding(data, index, limit);
+			scanLine(data, index, end, end == limit);
+			if (end == limit) break;
+
+			closeLine(base + end);
+			if (data.get(end) == '\n') {
+				lf_count++;
+				index = end + 1;
+			}
+			else if (end + 1 == limit) {
+				// Whether it is CRLF is known in the next chunk.
+				is_cr_pending = true;
+				index = end + 1;
+			}
+			else if (data.get(end + 1) == '\n') {
+				crlf_count++;
+				index = end + 2;
+			}
+			else {
+				cr_count++;
+				index = end + 1;
+			}
+			if (line > 0) line++;
+			line_offset = base + index;
+		}
+	}
+
+	/**
+	 * Provide a chunk of the data.
+	 * @param data_offset The offset of the chunk in the document.
+	 */
+	public void update(byte[] data, int offset, int length, long data_offset) {
+		update(ByteBuffer.wrap(data, offset, length), data_offset);
+	}
+}
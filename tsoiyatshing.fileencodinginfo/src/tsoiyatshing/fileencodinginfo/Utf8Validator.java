@@ -0,0 +1,159 @@
+package tsoiyatshing.fileencodinginfo;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Validate UTF-8 and US-ASCII data without decoding it into characters, the ASCII runs are checked 8 bytes at a time.
+ * The bytes rejected are the same as the decoders of the JRE, i.e. strict UTF-8 (no overlong form, no surrogate, not larger than U+10FFFF), so the error offsets are the same.
+ * The methods use absolute indexes, the position and the limit of the data are not used.
+ * The word-at-a-time checks are also used by FastEncodingDetector and StructureScanner, so that there is one UTF-8 implementation.
+ * @author Tsoi Yat Shing
+ *
+ */
+final class Utf8Validator {
+	// The high bit of each byte of a word.
+	private static final long HIGH_BITS = 0x8080808080808080L;
+
+	// The low bit of each byte of a word.
+	private static final long LOW_BITS = 0x0101010101010101L;
+
+	private Utf8Validator() {
+	}
+
+	/**
+	 * Check the multi-byte sequence at an index.
+	 * @param index The index of the first byte of the sequence, which is not ASCII.
+	 * @param limit The index after the last byte of the data.
+	 * @return the length of the sequence, 0 if it is malformed, or -1 if it is a valid prefix ended by the limit.
+	 */
+	private static int checkSequence(ByteBuffer data, int index, int limit) {
+		int b = data.get(index) & 0xFF;
+		if (b < 0xC2 || b > 0xF4) return 0;
+		if (index + 1 >= limit) return -1;
+
+		// The first continuation byte has a narrower range after some leading bytes.
+		int c = data.get(index + 1) & 0xFF;
+		if (b < 0xE0) {
+			return (c & 0xC0) == 0x80 ? 2 : 0;
+		}
+		if (b < 0xF0) {
+			if (b == 0xE0 ? c < 0xA0 || c > 0xBF : b == 0xED ? c < 0x80 || c > 0x9F : (c & 0xC0) != 0x80) return 0;
+			if (index + 2 >= limit) return -1;
+			return (data.get(index + 2) & 0xC0) == 0x80 ? 3 : 0;
+		}
+		if (b == 0xF0 ? c < 0x90 || c > 0xBF : b == 0xF4 ? c < 0x80 || c > 0x8F : (c & 0xC0) != 0x80) return 0;
+		for (int i = 2; i <= 3; i++) {
+			if (index + i >= limit) return -1;
+			if ((data.get(index + i) & 0xC0) != 0x80) return 0;
+		}
+		return 4;
+	}
+
+	/**
+	 * Count the multi-byte sequences of UTF-8 data, e.g. for detecting UTF-8 in a sample.
+	 * The data may end with an incomplete sequence, as it may be the beginning of a document.
+	 * @param index The index to start, which should be the beginning of a character.
+	 * @param limit The index after the last byte of the data.
+	 * @return the number of the multi-byte sequences, or -1 if the data is not UTF-8 or contains NUL (e.g. UTF-16 without BOM).
+	 */
+	public static int countSequences(ByteBuffer data, int index, int limit) {
+		int sequence_count = 0;
+		for (;;) {
+			index = skipText(data, index, limit);
+			if (index >= limit) return sequence_count;
+			if (data.get(index) == 0) return -1;
+
+			int length = checkSequence(data, index, limit);
+			if (length == 0) return -1;
+			// The data ends in the middle of the sequence.
+			if (length < 0) return sequence_count;
+			index += length;
+			sequence_count++;
+		}
+	}
+
+	/**
+	 * Get the number of the continuation bytes missing from an incomplete sequence, which should be provided by the next chunk.
+	 * @param index The index of the incomplete sequence, see isIncomplete().
+	 * @param limit The index after the last byte of the data.
+	 */
+	static int getMissingLength(ByteBuffer data, int index, int limit) {
+		int b = data.get(index) & 0xFF;
+		return (b < 0xE0 ? 2 : b < 0xF0 ? 3 : 4) - (limit - index);
+	}
+
+	/**
+	 * Check whether a word has a zero byte, i.e. subtracting 1 from the byte borrows from its high bit.
+	 * XOR the word with a byte repeated 8 times first for finding that byte, e.g. a line ending.
+	 */
+	static boolean hasZeroByte(long word) {
+		return ((word - LOW_BITS) & ~word & HIGH_BITS) != 0;
+	}
+
+	/**
+	 * Check whether the data stopped by validateUtf8() is only incomplete, so that it may be completed by the next chunk.
+	 * @param index The index returned by validateUtf8(), which is less than the limit.
+	 * @param limit The index after the last byte of the data.
+	 * @return true if the bytes from the index to the limit are the beginning of a valid sequence.
+	 */
+	public static boolean isIncomplete(ByteBuffer data, int index, int limit) {
+		return checkSequence(data, index, limit) < 0;
+	}
+
+	/**
+	 * Skip the ASCII bytes, 8 bytes at a time.
+	 * @return the index of the first byte which is not ASCII, or the limit.
+	 */
+	private static int skipAscii(ByteBuffer data, int index, int limit) {
+		while (index + 8 <= limit && (data.getLong(index) & HIGH_BITS) == 0) {
+			index += 8;
+		}
+		while (index < limit && data.get(index) >= 0) {
+			index++;
+		}
+		return index;
+	}
+
+	/**
+	 * Skip the ASCII bytes except NUL, 8 bytes at a time.
+	 * @return the index of the first byte which is not ASCII or is NUL, or the limit.
+	 */
+	private static int skipText(ByteBuffer data, int index, int limit) {
+		while (index + 8 <= limit) {
+			long word = data.getLong(index);
+			if ((word & HIGH_BITS) != 0 || hasZeroByte(word)) break;
+			index += 8;
+		}
+		while (index < limit && data.get(index) > 0) {
+			index++;
+		}
+		return index;
+	}
+
+	/**
+	 * Validate US-ASCII data.
+	 * @param index The index to start.
+	 * @param limit The index after the last byte of the data.
+	 * @return the index of the first byte which is not ASCII, or the limit if the data is valid.
+	 */
+	public static int validateAscii(ByteBuffer data, int index, int limit) {
+		return skipAscii(data, index, limit);
+	}
+
+	/**
+	 * Validate UTF-8 data.
+	 * @param index The index to start, which should be the beginning of a character.
+	 * @param limit The index after the last byte of the data.
+	 * @return the index of the first malformed or incomplete sequence (see isIncomplete()), or the limit if the data is valid.
+	 */
+	public static int validateUtf8(ByteBuffer data, int index, int limit) {
+		for (;;) {
+			index = skipAscii(data, index, limit);
+			if (index >= limit) return limit;
+
+			int length = checkSequence(data, index, limit);
+			if (length <= 0) return index;
+			index += length;
+		}
+	}
+}
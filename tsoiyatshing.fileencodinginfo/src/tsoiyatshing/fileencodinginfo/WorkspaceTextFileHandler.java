@@ -1,28 +1,26 @@
 package tsoiyatshing.fileencodinginfo;
 
+import java.io.File;
+import java.io.InputStream;
+import java.net.URI;
+
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.ui.IEditorPart;
 import org.eclipse.ui.IFileEditorInput;
 
-import com.ibm.icu.text.CharsetMatch;
-
 /**
  * This handler handles workspace text file for ActiveDocumentAgent.
  * Assume that the ITextEditor supports IEncodingSupport too.
  * @author Tsoi Yat Shing
  *
  */
-class WorkspaceTextFileHandler extends EncodedDocumentHandler {
+class WorkspaceTextFileHandler extends DetectableDocumentHandler {
 
 	// The text file associated with the editor.
 	private IFile text_file = null;
-	
-	// The confidence of the encoding.
-	private int encoding_confidence;
-	
-	// The detected encodings of the text file.
-	private CharsetMatch[] detected_encodings;
 
 	public WorkspaceTextFileHandler(IEditorPart part, IActiveDocumentAgentCallback callback) {
 		super(part, callback);
@@ -30,67 +28,49 @@ class WorkspaceTextFileHandler extends EncodedDocumentHandler {
 		if (!(part.getEditorInput() instanceof IFileEditorInput)) throw new IllegalArgumentException("part must provide IFileEditorInput.");
 		
 		text_file = ((IFileEditorInput) part.getEditorInput()).getFile();
-		
-		updateEncodingInfoPrivately();
 	}
 
 	@Override
-	public CharsetMatch[] getDetectedEncodings() {
-		return detected_encodings;
+	protected String getCacheKey(IProgressMonitor monitor) throws CoreException {
+		return getCacheKey(text_file);
+	}
+
+	/**
+	 * Get the key for caching the detection result of a workspace file, see DetectionCache.getKey().
+	 * @return the key, or null if the file cannot be identified.
+	 */
+	static String getCacheKey(IFile file) {
+		// The modification stamp is not changed by external modification until the file is refreshed, so use the local file if possible.
+		IPath location = file.getLocation();
+		if (location != null) {
+			File local_file = location.toFile();
+			return DetectionCache.getKey(local_file.toURI(), local_file.lastModified(), local_file.length());
+		}
+		return DetectionCache.getKey(file.getLocationURI(), file.getModificationStamp(), -1);
 	}
 
 	@Override
-	public int getEncodingConfidence() {
-		return encoding_confidence;
+	protected InputStream getContents(IProgressMonitor monitor) throws CoreException {
+		return text_file.exists() ? text_file.getContents(true) : null;
 	}
 
-	/**
-	 * Update the encoding information in member variables.
-	 * This method may be overrided, but should be called by the sub-class.
-	 * @return true if the encoding information is updated.
-	 */
-	protected boolean updateEncodingInfo() {
-		return super.updateEncodingInfo() | updateEncodingInfoPrivately();
+	@Override
+	protected String getFileStoreScheme() {
+		// A linked resource may be in a remote file store.
+		URI location = text_file.getLocationURI();
+		return location == null ? null : location.getScheme();
 	}
 
-	/**
-	 * Update the encoding information in private member variables.
-	 * @return true if the encoding information is updated.
-	 */
-	private boolean updateEncodingInfoPrivately() {
-		// Get the updated encoding setting.
-		String encoding = getEncoding();
-		
-		// Do detection.
-		CharsetMatch[] detected_encodings = null;
-		int encoding_confidence = 0;
-		
-		if (text_file.exists()) {
-			try {
-				detected_encodings = EncodingUtil.detectCharsets(text_file.getContents(true));
-				encoding_confidence = EncodingUtil.getConfidence(detected_encodings, encoding);
-				
-				// Check whether the text file can really be decoded by the encoding, and adjust the confidence.
-				boolean is_text_file_decodable = EncodingUtil.isDecodable(text_file.getContents(true), encoding);
-				if (!is_text_file_decodable) {
-					// CharsetDetector may not read all the input data, so the confidence may not be zero even if the text cannot be decoded.
-					encoding_confidence = 0;
-				}
-				else if (encoding_confidence == 0) {
-					// CharsetDetector does not support all encodings, so the confidence may be zero even if the text can be decoded.
-					encoding_confidence = 1;
-				}
-			} catch (CoreException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-		}
-		
-		this.detected_encodings = detected_encodings;
-		this.encoding_confidence = encoding_confidence;
-		
-		// Just assume that the encoding information is updated.
-		return true;
+	@Override
+	protected File getLocalFile(IProgressMonitor monitor) throws CoreException {
+		// The location is null if the file is not in the local file system.
+		IPath location = text_file.getLocation();
+		return location == null ? null : location.toFile();
+	}
+
+	@Override
+	protected IPath getResourcePath() {
+		return text_file.getFullPath();
 	}
 
 }